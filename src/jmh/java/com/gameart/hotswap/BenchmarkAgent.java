@@ -0,0 +1,68 @@
+package com.gameart.hotswap;
+
+import com.sun.tools.attach.VirtualMachine;
+
+import java.io.OutputStream;
+import java.lang.instrument.Instrumentation;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * 在基准测试的进程中启动热更代理。
+ *
+ * 通过attach自身的方式加载一个只包含清单文件的临时代理jar包，代理类型从classpath中加载，
+ * 因此基准测试不需要事先打包代理，也不需要在命令行中指定-javaagent。
+ * 进程需要使用-Djdk.attach.allowAttachSelf=true启动。
+ */
+public final class BenchmarkAgent {
+
+    private static boolean loaded;
+
+    private BenchmarkAgent() {
+    }
+
+    /**
+     * 确保热更代理已经启动，多次调用只有第一次生效。
+     *
+     * @throws Exception 加载代理出现错误时抛出此异常
+     */
+    static synchronized void ensureLoaded() throws Exception {
+        if (loaded) {
+            return;
+        }
+
+        Path jar = Files.createTempFile("hotswap-benchmark-agent", ".jar");
+        jar.toFile().deleteOnExit();
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Agent-Class", BenchmarkAgent.class.getName());
+        attributes.putValue("Can-Redefine-Classes", "true");
+        attributes.putValue("Can-Retransform-Classes", "true");
+        try (OutputStream os = Files.newOutputStream(jar); JarOutputStream jos = new JarOutputStream(os, manifest)) {
+            jos.flush();
+        }
+
+        VirtualMachine vm = VirtualMachine.attach(String.valueOf(ProcessHandle.current().pid()));
+        try {
+            vm.loadAgent(jar.toString());
+        } finally {
+            vm.detach();
+        }
+        loaded = true;
+    }
+
+    /**
+     * 代理的入口，只初始化热更代理，不触发热更。
+     *
+     * @param agentArgs 代理参数，忽略
+     * @param inst      jvm传递的Instrumentation实例
+     */
+    public static void agentmain(String agentArgs, Instrumentation inst) {
+        HotSwapAgent.premain(null, inst);
+    }
+
+}
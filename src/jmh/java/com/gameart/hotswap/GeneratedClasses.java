@@ -0,0 +1,264 @@
+package com.gameart.hotswap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * 基准测试使用的类型生成器。
+ *
+ * 生成的类型实现{@link java.util.function.IntSupplier}和{@link java.util.function.IntUnaryOperator}：
+ * <pre>
+ * public class bench.GenN implements IntSupplier, IntUnaryOperator {
+ *     public int getAsInt() { return version; }
+ *     public int applyAsInt(int x) { return x * version + (x >>> 3); }
+ *     public int m0() { return version; }  // 用于增大类型的体积
+ *     ...
+ * }
+ * </pre>
+ * 不同版本之间只有常量不同，满足重定义的要求，可以在任意版本之间互相热更。
+ */
+final class GeneratedClasses {
+
+    /**
+     * 生成的类型所在的包。
+     */
+    static final String PACKAGE = "bench";
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int CP_UTF8 = 1;
+    private static final int CP_INTEGER = 3;
+    private static final int CP_CLASS = 7;
+    private static final int CP_METHODREF = 10;
+    private static final int CP_NAME_AND_TYPE = 12;
+
+    /**
+     * 常量池中的固定项，额外方法的名称从{@link #CP_FIXED_COUNT}开始。
+     */
+    private static final int CP_THIS_CLASS = 2;
+    private static final int CP_OBJECT = 4;
+    private static final int CP_INIT = 5;
+    private static final int CP_VOID_DESCRIPTOR = 6;
+    private static final int CP_INIT_NAME_AND_TYPE = 7;
+    private static final int CP_OBJECT_INIT = 8;
+    private static final int CP_CODE = 9;
+    private static final int CP_GET_AS_INT = 10;
+    private static final int CP_INT_DESCRIPTOR = 11;
+    private static final int CP_VERSION = 12;
+    private static final int CP_APPLY_AS_INT = 13;
+    private static final int CP_INT_INT_DESCRIPTOR = 14;
+    private static final int CP_INT_SUPPLIER = 16;
+    private static final int CP_INT_UNARY_OPERATOR = 18;
+    private static final int CP_FIXED_COUNT = 19;
+
+    private GeneratedClasses() {
+    }
+
+    /**
+     * @param index 类型的序号
+     * @return 生成的类型的全限定名
+     */
+    static String className(int index) {
+        return PACKAGE + ".Gen" + index;
+    }
+
+    /**
+     * 生成一个类型的字节。
+     *
+     * @param className    类型的全限定名
+     * @param version      版本号，作为方法的返回值
+     * @param extraMethods 额外生成的方法数量，用于控制类型的体积
+     * @return class文件的字节
+     */
+    static byte[] generate(String className, int version, int extraMethods) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(256 + extraMethods * 32);
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+
+            out.writeShort(CP_FIXED_COUNT + extraMethods);
+            utf8(out, className.replace('.', '/'));
+            classRef(out, 1);
+            utf8(out, "java/lang/Object");
+            classRef(out, 3);
+            utf8(out, "<init>");
+            utf8(out, "()V");
+            out.writeByte(CP_NAME_AND_TYPE);
+            out.writeShort(CP_INIT);
+            out.writeShort(CP_VOID_DESCRIPTOR);
+            out.writeByte(CP_METHODREF);
+            out.writeShort(CP_OBJECT);
+            out.writeShort(CP_INIT_NAME_AND_TYPE);
+            utf8(out, "Code");
+            utf8(out, "getAsInt");
+            utf8(out, "()I");
+            out.writeByte(CP_INTEGER);
+            out.writeInt(version);
+            utf8(out, "applyAsInt");
+            utf8(out, "(I)I");
+            utf8(out, "java/util/function/IntSupplier");
+            classRef(out, 15);
+            utf8(out, "java/util/function/IntUnaryOperator");
+            classRef(out, 17);
+            for (int i = 0; i < extraMethods; i++) {
+                utf8(out, "m" + i);
+            }
+
+            out.writeShort(ACC_PUBLIC | ACC_SUPER);
+            out.writeShort(CP_THIS_CLASS);
+            out.writeShort(CP_OBJECT);
+            out.writeShort(2);
+            out.writeShort(CP_INT_SUPPLIER);
+            out.writeShort(CP_INT_UNARY_OPERATOR);
+            out.writeShort(0);
+
+            out.writeShort(3 + extraMethods);
+            // aload_0; invokespecial Object.<init>; return
+            method(out, CP_INIT, CP_VOID_DESCRIPTOR, 1, 1,
+                    new byte[]{0x2A, (byte) 0xB7, 0x00, CP_OBJECT_INIT, (byte) 0xB1});
+            // ldc version; ireturn
+            byte[] returnVersion = {0x12, CP_VERSION, (byte) 0xAC};
+            method(out, CP_GET_AS_INT, CP_INT_DESCRIPTOR, 1, 1, returnVersion);
+            // iload_1; ldc version; imul; iload_1; iconst_3; iushr; iadd; ireturn
+            method(out, CP_APPLY_AS_INT, CP_INT_INT_DESCRIPTOR, 3, 2,
+                    new byte[]{0x1B, 0x12, CP_VERSION, 0x68, 0x1B, 0x06, 0x7C, 0x60, (byte) 0xAC});
+            for (int i = 0; i < extraMethods; i++) {
+                method(out, CP_FIXED_COUNT + i, CP_INT_DESCRIPTOR, 1, 1, returnVersion);
+            }
+
+            out.writeShort(0);
+            out.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 生成一批类型的字节。
+     *
+     * @param count        类型的数量
+     * @param version      版本号
+     * @param extraMethods 每个类型额外生成的方法数量
+     * @return 按照序号排列的class文件的字节
+     */
+    static List<byte[]> generate(int count, int version, int extraMethods) {
+        List<byte[]> classFiles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            classFiles.add(generate(className(i), version, extraMethods));
+        }
+        return classFiles;
+    }
+
+    /**
+     * 把一批类型写入目录，目录的结构与classpath一致。
+     *
+     * @param dir          目标目录
+     * @param count        类型的数量
+     * @param version      版本号
+     * @param extraMethods 每个类型额外生成的方法数量
+     * @throws IOException 写入文件出现错误时抛出此异常
+     */
+    static void writeClasses(Path dir, int count, int version, int extraMethods) throws IOException {
+        Path packageDir = Files.createDirectories(dir.resolve(PACKAGE));
+        for (int i = 0; i < count; i++) {
+            Files.write(packageDir.resolve("Gen" + i + ".class"), generate(className(i), version, extraMethods));
+        }
+    }
+
+    /**
+     * 把一批类型写入jar文件，可以同时写入热更配置文件。
+     *
+     * @param jar          目标jar文件
+     * @param count        类型的数量
+     * @param version      版本号
+     * @param extraMethods 每个类型额外生成的方法数量
+     * @param config       热更配置文件的内容，为null时不写入
+     * @throws IOException 写入文件出现错误时抛出此异常
+     */
+    static void writeJar(Path jar, int count, int version, int extraMethods, String config) throws IOException {
+        try (OutputStream os = Files.newOutputStream(jar); JarOutputStream jos = new JarOutputStream(os)) {
+            if (config != null) {
+                jos.putNextEntry(new JarEntry(HotSwapManager.HOT_SWAP_FILENAME));
+                jos.write(config.getBytes(StandardCharsets.UTF_8));
+                jos.closeEntry();
+            }
+            for (int i = 0; i < count; i++) {
+                jos.putNextEntry(new JarEntry(PACKAGE + "/Gen" + i + ".class"));
+                jos.write(generate(className(i), version, extraMethods));
+                jos.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * 生成热更配置文件的内容。
+     *
+     * @param count 类型的数量
+     * @param batch 为true时所有类型写在同一行，作为一个批次同时重载；否则每个类型一行
+     * @return 热更配置文件的内容
+     */
+    static String config(int count, boolean batch) {
+        StringBuilder sb = new StringBuilder("switch=on\n");
+        for (int i = 0; i < count; i++) {
+            sb.append(className(i));
+            sb.append(((i < count - 1) && batch) ? HotSwapManager.MULTIPLE_CLASS_SEPARATOR : "\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 直接定义生成的类型的类加载器。
+     */
+    static final class Loader extends ClassLoader {
+
+        Loader() {
+            super(GeneratedClasses.class.getClassLoader());
+        }
+
+        Class<?> define(String className, byte[] classFile) {
+            return defineClass(className, classFile, 0, classFile.length);
+        }
+
+    }
+
+    private static void utf8(DataOutputStream out, String s) throws IOException {
+        out.writeByte(CP_UTF8);
+        out.writeUTF(s);
+    }
+
+    private static void classRef(DataOutputStream out, int nameIndex) throws IOException {
+        out.writeByte(CP_CLASS);
+        out.writeShort(nameIndex);
+    }
+
+    private static void method(DataOutputStream out, int nameIndex, int descriptorIndex,
+                               int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(nameIndex);
+        out.writeShort(descriptorIndex);
+        out.writeShort(1);
+        out.writeShort(CP_CODE);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+}
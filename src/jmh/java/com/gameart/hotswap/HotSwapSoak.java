@@ -0,0 +1,235 @@
+package com.gameart.hotswap;
+
+import com.gameart.watch.FileWatchManager;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * 热更的长时间测试，测量JMH不适合测量的两类指标。
+ *
+ * jit：一个已经被JIT编译的热点方法所在的类型被重定义后，吞吐量的下降幅度以及恢复到重定义之前水平所需的时间。
+ * e2e：从修改补丁文件和热更配置文件开始，到游戏主循环观察到新代码生效为止的时间，
+ * 包括文件监视的延迟、准备阶段以及在主循环中执行的应用阶段。
+ *
+ * 用法：
+ * <pre>
+ * java -Djdk.attach.allowAttachSelf=true --add-exports=java.management/sun.management=ALL-UNNAMED \
+ *      -cp ... com.gameart.hotswap.HotSwapSoak (jit|e2e) [轮数]
+ * </pre>
+ */
+public final class HotSwapSoak {
+
+    /**
+     * 吞吐量采样窗口的长度，单位纳秒。
+     */
+    private static final long WINDOW = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * 吞吐量恢复到重定义之前的这个比例时，认为已经恢复。
+     */
+    private static final double RECOVERED_RATIO = 0.9;
+
+    /**
+     * 连续多少个窗口的吞吐量达到恢复比例时，认为已经恢复。
+     */
+    private static final int RECOVERED_WINDOWS = 5;
+
+    /**
+     * 游戏主循环每一帧的时间，单位毫秒。
+     */
+    private static final long FRAME_MILLIS = 33;
+
+    /**
+     * 防止热点方法的计算被优化掉。
+     */
+    private static volatile int sink;
+
+    private HotSwapSoak() {
+    }
+
+    public static void main(String[] args) throws Throwable {
+        String mode = (args.length > 0) ? args[0] : "jit";
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+
+        BenchmarkAgent.ensureLoaded();
+        switch (mode) {
+            case "jit":
+                soakJit(rounds);
+                break;
+            case "e2e":
+                soakEndToEnd(rounds);
+                break;
+            default:
+                System.err.println("未知的模式：" + mode + "，可选的模式为jit和e2e");
+                System.exit(2);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * 测量热点方法所在的类型被重定义后，吞吐量的下降以及恢复时间。
+     */
+    private static void soakJit(int rounds) throws Throwable {
+        GeneratedClasses.Loader loader = new GeneratedClasses.Loader();
+        String className = GeneratedClasses.className(0);
+        Class<?> clazz = loader.define(className, GeneratedClasses.generate(className, 0, 0));
+        IntUnaryOperator op = (IntUnaryOperator) clazz.getConstructor().newInstance();
+        List<Class<?>> classes = Arrays.asList(clazz);
+
+        // 预热，让热点方法被C2编译。
+        long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < warmupEnd) {
+            window(op);
+        }
+
+        System.out.println("round\tredefineMicros\tbaselineOpsPerMs\tminOpsPerMs\tdropPercent\trecoveryMillis\tinvalidatedCompileTasks");
+        long[] recoveries = new long[rounds];
+        for (int round = 0; round < rounds; round++) {
+            long[] before = new long[100];
+            for (int i = 0; i < before.length; i++) {
+                before[i] = window(op);
+            }
+            long baseline = median(before);
+
+            HotSpotCounters countersBefore = HotSpotCounters.sample();
+            long redefineStart = System.nanoTime();
+            HotSwapAgent.reload(classes, Arrays.asList(GeneratedClasses.generate(className, round + 1, 0)));
+            long redefineTime = System.nanoTime() - redefineStart;
+
+            long min = Long.MAX_VALUE;
+            int recoveredWindows = 0;
+            long recoveryStart = System.nanoTime();
+            long recoveryTime = -1;
+            long deadline = recoveryStart + TimeUnit.SECONDS.toNanos(30);
+            while (System.nanoTime() < deadline) {
+                long ops = window(op);
+                min = Math.min(min, ops);
+                recoveredWindows = (ops >= baseline * RECOVERED_RATIO) ? recoveredWindows + 1 : 0;
+                if (recoveredWindows == RECOVERED_WINDOWS) {
+                    recoveryTime = System.nanoTime() - recoveryStart - (RECOVERED_WINDOWS - 1) * WINDOW;
+                    break;
+                }
+            }
+            HotSpotCounters countersAfter = HotSpotCounters.sample();
+
+            long windowMillis = TimeUnit.NANOSECONDS.toMillis(WINDOW);
+            recoveries[round] = TimeUnit.NANOSECONDS.toMillis(recoveryTime);
+            System.out.printf("%d\t%d\t%d\t%d\t%.1f\t%d\t%d%n", round, TimeUnit.NANOSECONDS.toMicros(redefineTime),
+                    baseline / windowMillis, min / windowMillis, 100.0 * (baseline - min) / baseline,
+                    recoveries[round], HotSpotCounters.delta(countersBefore.invalidatedCompileTasks,
+                            countersAfter.invalidatedCompileTasks));
+        }
+        summary("recoveryMillis", recoveries);
+    }
+
+    /**
+     * 在一个采样窗口内尽可能多地调用热点方法。
+     *
+     * @return 窗口内的调用次数
+     */
+    private static long window(IntUnaryOperator op) {
+        long end = System.nanoTime() + WINDOW;
+        long ops = 0;
+        int acc = 0;
+        do {
+            for (int i = 0; i < 1024; i++) {
+                acc += op.applyAsInt(i);
+            }
+            ops += 1024;
+        } while (System.nanoTime() < end);
+        sink = acc;
+        return ops;
+    }
+
+    /**
+     * 测量从修改补丁到新代码在游戏主循环中生效的时间。
+     * 热更配置文件所在的目录同时也是被热更的类型的classpath，和游戏服的部署方式一致。
+     */
+    private static void soakEndToEnd(int rounds) throws Throwable {
+        int classCount = 10;
+        Path dir = Files.createTempDirectory("hotswap-soak");
+        GeneratedClasses.writeClasses(dir, classCount, 0, 10);
+        Path config = dir.resolve(HotSwapManager.HOT_SWAP_FILENAME);
+        Files.write(config, GeneratedClasses.config(classCount, false).getBytes(StandardCharsets.UTF_8));
+
+        URLClassLoader loader = new URLClassLoader(new URL[]{dir.toUri().toURL()}, HotSwapSoak.class.getClassLoader());
+        Thread.currentThread().setContextClassLoader(loader);
+        List<IntSupplier> suppliers = new ArrayList<>(classCount);
+        for (int i = 0; i < classCount; i++) {
+            suppliers.add((IntSupplier) loader.loadClass(GeneratedClasses.className(i)).getConstructor().newInstance());
+        }
+
+        // 应用阶段在主循环中执行，与游戏服的用法一致。
+        Queue<Runnable> frameTasks = new ConcurrentLinkedQueue<>();
+        HotSwapManager manager = HotSwapManager.getInstance();
+        manager.setApplyExecutor(frameTasks::add);
+        if (!manager.start()) {
+            throw new IllegalStateException("热更服务启动失败");
+        }
+
+        System.out.println("round\tendToEndMillis\tframes");
+        long[] latencies = new long[rounds];
+        for (int round = 0; round < rounds; round++) {
+            int version = round + 1;
+            GeneratedClasses.writeClasses(dir, classCount, version, 10);
+            // 交替使用单行和多行的写法，保证每一轮的配置内容都有变化。
+            String content = GeneratedClasses.config(classCount, (round & 1) == 0);
+            long startTime = System.nanoTime();
+            Files.write(config, content.getBytes(StandardCharsets.UTF_8));
+
+            int frames = 0;
+            long deadline = startTime + TimeUnit.SECONDS.toNanos(60);
+            while (!allAt(suppliers, version)) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("第" + round + "轮热更在60秒内没有生效");
+                }
+                Thread.sleep(FRAME_MILLIS);
+                FileWatchManager.tick();
+                Runnable task;
+                while ((task = frameTasks.poll()) != null) {
+                    task.run();
+                }
+                frames++;
+            }
+
+            latencies[round] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            System.out.println(round + "\t" + latencies[round] + "\t" + frames);
+        }
+        summary("endToEndMillis", latencies);
+    }
+
+    private static boolean allAt(List<IntSupplier> suppliers, int version) {
+        for (IntSupplier supplier : suppliers) {
+            if (supplier.getAsInt() != version) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void summary(String name, long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s: min=%d p50=%d p90=%d max=%d%n", name, sorted[0], sorted[sorted.length / 2],
+                sorted[(int) (sorted.length * 0.9)], sorted[sorted.length - 1]);
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.gameart.hotswap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * 从大型jar包中读取类型字节的开销。
+ *
+ * readOne是{@link HotSwapManager#readBytesFromJar(String, String)}读取一个类型的开销，每次都会打开jar包并解析中央目录；
+ * readBatch用同样的方式读取一批类型，与一个热更批次中每个类型都读取一次jar包的情况一致；
+ * readBatchShared只打开一次jar包读取同样的一批类型，作为缓存jar包时的参照。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class JarReadBenchmark {
+
+    /**
+     * jar包中的类型数量。
+     */
+    @Param({"1000", "10000", "50000"})
+    public int entries;
+
+    /**
+     * 一个热更批次读取的类型数量。
+     */
+    @Param({"100"})
+    public int batchSize;
+
+    private Path jar;
+
+    private String[] entryNames;
+
+    private int cursor;
+
+    @Setup
+    public void setup() throws IOException {
+        this.jar = Files.createTempFile("hotswap-benchmark", ".jar");
+        GeneratedClasses.writeJar(this.jar, this.entries, 1, 20, null);
+
+        // 读取的类型均匀分布在整个jar包中。
+        this.entryNames = new String[this.batchSize];
+        for (int i = 0; i < this.batchSize; i++) {
+            int index = (int) ((long) i * this.entries / this.batchSize);
+            this.entryNames[i] = GeneratedClasses.PACKAGE + "/Gen" + index + ".class";
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.jar);
+    }
+
+    @Benchmark
+    public byte[] readOne() {
+        String entryName = this.entryNames[this.cursor++ % this.entryNames.length];
+        return HotSwapManager.readBytesFromJar(this.jar.toString(), entryName);
+    }
+
+    @Benchmark
+    public void readBatch(Blackhole blackhole) {
+        for (String entryName : this.entryNames) {
+            blackhole.consume(HotSwapManager.readBytesFromJar(this.jar.toString(), entryName));
+        }
+    }
+
+    @Benchmark
+    public void readBatchShared(Blackhole blackhole) throws IOException {
+        try (JarFile jarFile = new JarFile(this.jar.toFile())) {
+            for (String entryName : this.entryNames) {
+                JarEntry entry = jarFile.getJarEntry(entryName);
+                byte[] data = new byte[(int) entry.getSize()];
+                try (DataInputStream dis = new DataInputStream(jarFile.getInputStream(entry))) {
+                    dis.readFully(data);
+                }
+                blackhole.consume(data);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.gameart.hotswap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * {@link HotSwapManager#reload(Path)}的完整开销，包括读取补丁中的配置和字节、兼容性检查、重定义、记录版本历史。
+ * 补丁分别使用目录和jar文件，两个版本的补丁交替应用。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 30)
+@Fork(value = 2, jvmArgsAppend = {"-Djdk.attach.allowAttachSelf=true",
+        "--add-exports=java.management/sun.management=ALL-UNNAMED"})
+public class ManagerReloadBenchmark {
+
+    @Param({"1", "10", "100", "500"})
+    public int classCount;
+
+    /**
+     * 为true时所有类型在同一行，作为一个批次重定义；否则每个类型单独重定义。
+     */
+    @Param({"true", "false"})
+    public boolean batch;
+
+    /**
+     * 补丁的形式，dir或者jar。
+     */
+    @Param({"dir", "jar"})
+    public String layout;
+
+    private Path workDir;
+
+    private Path[] patches;
+
+    private int round;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkAgent.ensureLoaded();
+
+        GeneratedClasses.Loader loader = new GeneratedClasses.Loader();
+        for (int i = 0; i < this.classCount; i++) {
+            loader.define(GeneratedClasses.className(i), GeneratedClasses.generate(GeneratedClasses.className(i), 0, 10))
+                    .getConstructor().newInstance();
+        }
+
+        this.workDir = Files.createTempDirectory("hotswap-benchmark");
+        String config = GeneratedClasses.config(this.classCount, this.batch);
+        this.patches = new Path[2];
+        for (int version = 1; version <= 2; version++) {
+            Path patch;
+            if ("jar".equals(this.layout)) {
+                patch = this.workDir.resolve("patch-" + version + ".jar");
+                GeneratedClasses.writeJar(patch, this.classCount, version, 10, config);
+            } else {
+                patch = this.workDir.resolve("patch-" + version);
+                GeneratedClasses.writeClasses(patch, this.classCount, version, 10);
+                Files.write(patch.resolve(HotSwapManager.HOT_SWAP_FILENAME), config.getBytes(StandardCharsets.UTF_8));
+            }
+            this.patches[version - 1] = patch;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(this.workDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public HotSwapResult reload() {
+        HotSwapResult result = HotSwapManager.getInstance().reload(this.patches[this.round++ & 1]).join();
+        if (!result.isSuccess()) {
+            throw new IllegalStateException(result.toString());
+        }
+        return result;
+    }
+
+}
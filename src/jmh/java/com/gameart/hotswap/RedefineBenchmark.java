@@ -0,0 +1,90 @@
+package com.gameart.hotswap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重定义类型的延迟随批次大小的变化。
+ *
+ * redefine直接调用{@link HotSwapAgent#reload(List, List)}，只包含JVM重定义类型的开销；
+ * checkAndRedefine在重定义之前执行兼容性检查，与应用阶段之前的准备阶段一致。
+ * 每次调用在两个版本之间交替，保证每次都真正修改了类型。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+@Fork(value = 2, jvmArgsAppend = {"-Djdk.attach.allowAttachSelf=true",
+        "--add-exports=java.management/sun.management=ALL-UNNAMED"})
+public class RedefineBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int batchSize;
+
+    /**
+     * 每个类型额外生成的方法数量，用于观察类型体积的影响。
+     */
+    @Param({"0", "50"})
+    public int extraMethods;
+
+    private final HotSwapChecker checker = new HotSwapChecker();
+
+    private List<Class<?>> classes;
+
+    private List<List<byte[]>> versions;
+
+    private int round;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkAgent.ensureLoaded();
+
+        GeneratedClasses.Loader loader = new GeneratedClasses.Loader();
+        List<byte[]> initial = GeneratedClasses.generate(this.batchSize, 0, this.extraMethods);
+        this.classes = new ArrayList<>(this.batchSize);
+        for (int i = 0; i < this.batchSize; i++) {
+            Class<?> clazz = loader.define(GeneratedClasses.className(i), initial.get(i));
+            clazz.getConstructor().newInstance();
+            this.classes.add(clazz);
+        }
+
+        this.versions = new ArrayList<>(2);
+        this.versions.add(GeneratedClasses.generate(this.batchSize, 1, this.extraMethods));
+        this.versions.add(GeneratedClasses.generate(this.batchSize, 2, this.extraMethods));
+    }
+
+    @Benchmark
+    public void redefine() throws Throwable {
+        HotSwapAgent.reload(this.classes, nextVersion());
+    }
+
+    @Benchmark
+    public void checkAndRedefine() throws Throwable {
+        List<byte[]> classFiles = nextVersion();
+        HotSwapChecker.Result result = this.checker.check(this.classes, classFiles);
+        if (!result.isCompatible()) {
+            throw new IllegalStateException(result.getProblems().toString());
+        }
+        HotSwapAgent.reload(this.classes, classFiles);
+        this.checker.commit(result);
+    }
+
+    private List<byte[]> nextVersion() {
+        return this.versions.get(this.round++ & 1);
+    }
+
+}
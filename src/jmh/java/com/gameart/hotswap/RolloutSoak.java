@@ -0,0 +1,271 @@
+package com.gameart.hotswap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * 多进程热更的端到端测试。
+ *
+ * 启动多个子进程，每个子进程加载同一批生成的类型并持续输出它们的版本号，
+ * 然后通过{@link HotSwapLauncher}按照金丝雀加波次的方式对所有子进程执行热更，检查每个进程的热更结果，
+ * 以及每个子进程是否观察到了新的版本。
+ * 之后再用一个无法生效的补丁执行一次，检查金丝雀失败后之后的波次没有被执行，子进程保持原来的版本。
+ *
+ * 用法：
+ * <pre>
+ * java -cp ... com.gameart.hotswap.RolloutSoak [子进程数量]
+ * </pre>
+ */
+public final class RolloutSoak {
+
+    private static final String CHILD = "child";
+
+    private static final String READY = "ready";
+
+    private static final String VALUE = "value ";
+
+    private static final int CLASS_COUNT = 4;
+
+    /**
+     * 子进程检查版本号的间隔，单位毫秒。
+     */
+    private static final long POLL_MILLIS = 20;
+
+    /**
+     * 等待子进程启动以及观察到新版本的超时时间，单位秒。
+     */
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private RolloutSoak() {
+    }
+
+    public static void main(String[] args) throws Throwable {
+        if ((args.length > 0) && CHILD.equals(args[0])) {
+            child(Paths.get(args[1]));
+            return;
+        }
+
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        System.exit(parent(count) ? 0 : 1);
+    }
+
+    /**
+     * 子进程：加载生成的类型，每当版本号变化时输出一行，标准输入被关闭时退出。
+     */
+    private static void child(Path classes) throws Throwable {
+        URLClassLoader loader = new URLClassLoader(new URL[]{classes.toUri().toURL()}, RolloutSoak.class.getClassLoader());
+        List<IntSupplier> suppliers = new ArrayList<>(CLASS_COUNT);
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            suppliers.add((IntSupplier) loader.loadClass(GeneratedClasses.className(i)).getConstructor().newInstance());
+        }
+
+        Thread watchdog = new Thread(() -> {
+            try {
+                while (System.in.read() >= 0) {
+                    // 父进程不会写入数据，只等待标准输入被关闭。
+                }
+            } catch (IOException e) {
+                // 父进程已经退出。
+            }
+            System.exit(0);
+        }, "rollout-soak-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+
+        System.out.println(READY);
+        int last = Integer.MIN_VALUE;
+        while (true) {
+            int value = minVersion(suppliers);
+            if (value != last) {
+                System.out.println(VALUE + value);
+                last = value;
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    private static int minVersion(List<IntSupplier> suppliers) {
+        int min = Integer.MAX_VALUE;
+        for (IntSupplier supplier : suppliers) {
+            min = Math.min(min, supplier.getAsInt());
+        }
+        return min;
+    }
+
+    /**
+     * 父进程：启动子进程，执行两次热更并检查结果。
+     *
+     * @return 所有检查都通过时返回true
+     */
+    private static boolean parent(int count) throws Throwable {
+        Path dir = Files.createTempDirectory("hotswap-rollout");
+        Path classes = dir.resolve("classes");
+        GeneratedClasses.writeClasses(classes, CLASS_COUNT, 0, 0);
+        Path patch = dir.resolve("patch");
+        GeneratedClasses.writeClasses(patch, CLASS_COUNT, 1, 0);
+        Files.write(patch.resolve(HotSwapManager.HOT_SWAP_FILENAME),
+                GeneratedClasses.config(CLASS_COUNT, true).getBytes(StandardCharsets.UTF_8));
+        // 热更项中的类型没有被任何进程加载，热更一定失败。
+        Path badPatch = Files.createDirectories(dir.resolve("bad-patch"));
+        Files.write(badPatch.resolve(HotSwapManager.HOT_SWAP_FILENAME),
+                ("switch=on\n" + GeneratedClasses.PACKAGE + ".Missing\n").getBytes(StandardCharsets.UTF_8));
+        Path agentJar = writeAgentJar(dir.resolve("agent.jar"));
+
+        List<Child> children = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                children.add(new Child(classes));
+            }
+            List<String> pids = new ArrayList<>(count);
+            for (Child child : children) {
+                if (!child.ready.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("子进程[" + child.pid + "]在" + TIMEOUT_SECONDS + "秒内没有启动");
+                }
+                pids.add(child.pid);
+            }
+
+            boolean passed = true;
+            System.out.println("rollout\tpid\tsuccess\tobservedVersion\tresult");
+
+            // 金丝雀1个进程，之后每一波2个进程，全部成功并且都观察到新的版本。
+            HotSwapLauncher launcher = new HotSwapLauncher(agentJar, patch);
+            launcher.setCanary(1);
+            launcher.setWaveSize(2);
+            launcher.setTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            Map<String, HotSwapResult> results = launcher.rollout(pids);
+            passed &= check("good", children, results, true, 1);
+
+            // 金丝雀失败，之后的波次都不执行，所有进程保持原来的版本。
+            launcher = new HotSwapLauncher(agentJar, badPatch);
+            launcher.setCanary(1);
+            launcher.setWaveSize(2);
+            launcher.setTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            results = launcher.rollout(pids);
+            passed &= check("bad", children, results, false, 1);
+
+            try {
+                new HotSwapLauncher(agentJar, dir.resolve("a,b"));
+                System.out.println("包含逗号的补丁路径没有被拒绝");
+                passed = false;
+            } catch (IllegalArgumentException e) {
+                // 预期的结果。
+            }
+
+            System.out.println(passed ? "全部检查通过" : "存在没有通过的检查");
+            return passed;
+        } finally {
+            for (Child child : children) {
+                child.process.destroy();
+            }
+        }
+    }
+
+    /**
+     * 检查一次热更的结果：每个进程都有结果，成功与否符合预期，并且在超时时间内观察到预期的版本。
+     */
+    private static boolean check(String name, List<Child> children, Map<String, HotSwapResult> results,
+                                 boolean expectSuccess, int expectVersion)
+            throws InterruptedException {
+        boolean passed = results.size() == children.size();
+        for (int i = 0; i < children.size(); i++) {
+            Child child = children.get(i);
+            HotSwapResult result = results.get(child.pid);
+            boolean success = (result != null) && result.isSuccess();
+            boolean observed = child.awaitVersion(expectVersion);
+            passed &= (result != null) && (success == expectSuccess) && observed;
+            System.out.println(name + "\t" + child.pid + "\t" + success + "\t" + child.version + "\t" + result);
+        }
+        return passed;
+    }
+
+    /**
+     * 只包含清单文件的代理jar包，代理类型从子进程的classpath中加载。
+     */
+    private static Path writeAgentJar(Path jar) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Agent-Class", HotSwapAgent.class.getName());
+        attributes.putValue("Can-Redefine-Classes", "true");
+        attributes.putValue("Can-Retransform-Classes", "true");
+        try (OutputStream os = Files.newOutputStream(jar); JarOutputStream jos = new JarOutputStream(os, manifest)) {
+            jos.flush();
+        }
+        return jar;
+    }
+
+    /**
+     * 一个子进程，以及从它的输出中读取到的状态。
+     */
+    private static final class Child {
+
+        private final Process process;
+
+        private final String pid;
+
+        private final CountDownLatch ready = new CountDownLatch(1);
+
+        private volatile int version = -1;
+
+        Child(Path classes) throws IOException {
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            List<String> command = new ArrayList<>(Arrays.asList(java, "-Dfile.encoding=UTF-8",
+                    "--add-exports=java.management/sun.management=ALL-UNNAMED",
+                    "-cp", System.getProperty("java.class.path"),
+                    RolloutSoak.class.getName(), CHILD, classes.toString()));
+            this.process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            this.pid = String.valueOf(this.process.pid());
+
+            Thread reader = new Thread(this::read, "rollout-soak-" + this.pid);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void read() {
+            try (BufferedReader br = new BufferedReader(
+                    new InputStreamReader(this.process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.equals(READY)) {
+                        this.ready.countDown();
+                    } else if (line.startsWith(VALUE)) {
+                        this.version = Integer.parseInt(line.substring(VALUE.length()));
+                    }
+                }
+            } catch (IOException e) {
+                // 子进程已经退出。
+            }
+        }
+
+        boolean awaitVersion(int expect) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            while (this.version != expect) {
+                if (System.nanoTime() > deadline) {
+                    return false;
+                }
+                Thread.sleep(POLL_MILLIS);
+            }
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.gameart.hotswap;
+
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * 在同一次JVM操作中获取类型当前的字节并安装新的字节。
+ *
+ * 第一次被热更的类型需要记录基线版本，而获取类型当前的字节只能通过重新转换。
+ * 如果先做一次不修改字节的重新转换、再重定义，就会多进入一次安全点并多丢弃一次已经编译的代码，
+ * 所以这种情况下直接用重新转换完成热更：转换器记录JVM给出的当前字节，同时返回新的字节。
+ *
+ * 通过重新转换安装的字节是一次转换的结果，JVM之后再次重新转换这个类型时(比如其它代理重新转换)，
+ * 仍然会从安装之前的字节开始，之后的重定义也不会改变这一点，
+ * 所以转换器会记住这些类型，在之后的重新转换中再次返回类型最新的字节。
+ */
+class BaselineCaptureTransformer implements ClassFileTransformer {
+
+    private final Instrumentation instrumentation;
+
+    /**
+     * 正在执行重定义或重新转换的线程，只有这个线程的转换请求会使用{@link #pending}。
+     */
+    private volatile Thread owner;
+
+    /**
+     * 正在重新转换的类型以及需要安装的新的字节，没有进行中的重新转换时为null。
+     */
+    private volatile Map<Class<?>, byte[]> pending;
+
+    /**
+     * 重新转换时JVM给出的类型当前的字节。
+     */
+    private final Map<Class<?>, byte[]> captured = new IdentityHashMap<>();
+
+    /**
+     * 通过重新转换安装了新的字节的类型，类型被卸载后自动移除。
+     */
+    private final Map<Class<?>, Installed> installed = Collections.synchronizedMap(new WeakHashMap<>());
+
+    BaselineCaptureTransformer(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * 同时对多个类进行重载，并获取其中一部分类型在重载之前的字节。
+     * 不需要获取字节时使用重定义，否则所有类型通过一次重新转换完成重载。
+     *
+     * @param classes    被重载的类型
+     * @param classFiles 类对应的新的字节数组
+     * @param capture    需要获取重载之前的字节的类型
+     * @return 类型与重载之前的字节的映射，只包含capture中的类型
+     * @throws Throwable 重载类型出现错误时抛出此异常
+     */
+    synchronized Map<Class<?>, byte[]> redefine(List<Class<?>> classes, List<byte[]> classFiles,
+                                               Set<Class<?>> capture) throws Throwable {
+        if (capture.isEmpty()) {
+            ClassDefinition[] definitions = new ClassDefinition[classes.size()];
+            for (int i = 0; i < definitions.length; i++) {
+                definitions[i] = new ClassDefinition(classes.get(i), classFiles.get(i));
+            }
+            this.owner = Thread.currentThread();
+            try {
+                this.instrumentation.redefineClasses(definitions);
+            } finally {
+                this.owner = null;
+            }
+            // 重定义不会改变JVM重新转换时的起点，已经安装过的类型之后需要安装重定义的字节。
+            synchronized (this.installed) {
+                for (int i = 0; i < definitions.length; i++) {
+                    Installed entry = this.installed.get(classes.get(i));
+                    if (entry != null) {
+                        this.installed.put(classes.get(i), new Installed(classFiles.get(i), entry.baseChecksum));
+                    }
+                }
+            }
+            return Collections.emptyMap();
+        }
+
+        Map<Class<?>, byte[]> pending = new IdentityHashMap<>();
+        for (int i = 0; i < classes.size(); i++) {
+            pending.put(classes.get(i), classFiles.get(i));
+        }
+        this.captured.clear();
+        this.pending = pending;
+        this.owner = Thread.currentThread();
+        try {
+            this.instrumentation.retransformClasses(classes.toArray(new Class<?>[0]));
+
+            Map<Class<?>, byte[]> baselines = new HashMap<>();
+            for (Map.Entry<Class<?>, byte[]> e : this.captured.entrySet()) {
+                Class<?> clazz = e.getKey();
+                this.installed.put(clazz, new Installed(pending.get(clazz), PatchStore.checksum(e.getValue())));
+                if (capture.contains(clazz)) {
+                    baselines.put(clazz, e.getValue());
+                }
+            }
+            return baselines;
+        } finally {
+            this.owner = null;
+            this.pending = null;
+            this.captured.clear();
+        }
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (classBeingRedefined == null) {
+            return null;
+        }
+
+        if (this.owner == Thread.currentThread()) {
+            Map<Class<?>, byte[]> pending = this.pending;
+            byte[] classFile = (pending == null) ? null : pending.get(classBeingRedefined);
+            if (classFile != null) {
+                this.captured.put(classBeingRedefined, classfileBuffer.clone());
+            }
+            // 自己发起的重定义直接使用重定义的字节。
+            return classFile;
+        }
+
+        Installed entry = this.installed.get(classBeingRedefined);
+        if (entry == null) {
+            return null;
+        }
+        if (PatchStore.checksum(classfileBuffer) != entry.baseChecksum) {
+            // 其它代理用不同的字节重定义了这个类型，之后的重新转换会从这些字节开始。
+            this.installed.remove(classBeingRedefined);
+            return null;
+        }
+        return entry.classFile;
+    }
+
+    /**
+     * 通过重新转换安装的字节，以及JVM重新转换时给出的安装之前的字节的CRC32。
+     */
+    private static final class Installed {
+
+        private final byte[] classFile;
+
+        private final int baseChecksum;
+
+        private Installed(byte[] classFile, int baseChecksum) {
+            this.classFile = classFile;
+            this.baseChecksum = baseChecksum;
+        }
+
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.gameart.hotswap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * 类型在第一次加载时的字节的CRC32，用于判断补丁是否过期。
+ *
+ * 只有补丁存储中有补丁的类名会被记录，同一个类名被不同的类加载器加载时分别记录，不同的类加载器加载的字节可能不同。
+ * 记录按照类加载器保存，只持有类加载器的弱引用，类加载器被回收后，对应的记录会被自动清除，
+ * 之后新建的类加载器也不会读取到已经被回收的类加载器的记录。
+ */
+final class ClassChecksums {
+
+    /**
+     * key为类加载器，启动类加载器为null，value为这个类加载器加载的类名与CRC32的映射。
+     */
+    private final Map<ClassLoader, Map<String, Integer>> checksums = new WeakHashMap<>();
+
+    /**
+     * 记录某个类型的字节的CRC32。
+     *
+     * @param loader    加载类型的类加载器，启动类加载器为null
+     * @param className 类名的内部形式
+     * @param checksum  字节的CRC32
+     */
+    synchronized void put(ClassLoader loader, String className, int checksum) {
+        this.checksums.computeIfAbsent(loader, k -> new HashMap<>()).put(className, checksum);
+    }
+
+    /**
+     * 获取某个类型第一次加载时的字节的CRC32。
+     *
+     * @param loader    加载类型的类加载器，启动类加载器为null
+     * @param className 类名的内部形式
+     * @return 字节的CRC32，没有记录时返回null
+     */
+    synchronized Integer get(ClassLoader loader, String className) {
+        Map<String, Integer> map = this.checksums.get(loader);
+        return (map == null) ? null : map.get(className);
+    }
+
+}
@@ -0,0 +1,510 @@
+package com.gameart.hotswap;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 类型的结构信息，只包含热更兼容性检查需要的部分：类修饰符、父类、接口、字段和方法。
+ *
+ * 结构信息可以从classfile中解析，也可以从已经加载的类型中通过反射获取。
+ * 解析classfile时只会读取需要的常量池项，不会构建完整的语法树，也不会读取方法体等属性内容。
+ */
+final class ClassStructure {
+
+    /**
+     * 参与比较的类修饰符：public、final、interface、abstract、synthetic、annotation、enum。
+     */
+    static final int CLASS_MODIFIERS = 0x7611;
+
+    /**
+     * 参与比较的字段修饰符，与JVM识别的字段修饰符保持一致。
+     */
+    static final int FIELD_MODIFIERS = 0x50DF;
+
+    /**
+     * 参与比较的方法修饰符，与JVM识别的方法修饰符保持一致。
+     */
+    static final int METHOD_MODIFIERS = 0x1DFF;
+
+    /**
+     * 类的静态初始化方法名称。
+     * 通过反射无法获取到此方法，因此不参与比较。
+     */
+    private static final String CLASS_INITIALIZER = "<clinit>";
+
+    /**
+     * 类名，使用内部形式，比如com/gameart/hotswap/HotSwapManager。
+     */
+    private final String name;
+
+    /**
+     * 类修饰符。
+     */
+    private final int access;
+
+    /**
+     * 父类名，使用内部形式，没有父类时为null。
+     */
+    private final String superName;
+
+    /**
+     * 直接实现的接口名，使用内部形式，保持声明顺序。
+     */
+    private final List<String> interfaces;
+
+    /**
+     * 字段信息，key为字段名，value为字段描述。
+     */
+    private final Map<String, Member> fields;
+
+    /**
+     * 字段是否按照classfile中的声明顺序排列。
+     * 反射不保证返回字段的顺序，通过反射获取的结构信息为false。
+     */
+    private final boolean fieldsOrdered;
+
+    /**
+     * 方法信息，key为方法名与方法描述符的组合，value为方法描述。
+     */
+    private final Map<String, Member> methods;
+
+    /**
+     * 解析classfile，获取类型的结构信息。
+     *
+     * @param classFile classfile对应的字节数组
+     * @return 类型的结构信息
+     * @throws IllegalArgumentException classfile格式错误时抛出此异常
+     */
+    static ClassStructure parse(byte[] classFile) {
+        try {
+            return new Parser(classFile).parse();
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("classfile被截断", e);
+        }
+    }
+
+    /**
+     * 通过反射获取已经加载的类型的结构信息。
+     * 此操作不会触发类型的初始化。
+     *
+     * @param clazz 已经加载的类型
+     * @return 类型的结构信息
+     */
+    static ClassStructure of(Class<?> clazz) {
+        int access = clazz.getModifiers();
+        if (clazz.getEnclosingClass() != null) {
+            // 成员类通过反射获取到的是内部类修饰符，需要转换成classfile中的类修饰符。
+            if (Modifier.isProtected(access)) {
+                access |= Modifier.PUBLIC;
+            }
+            access &= ~(Modifier.PRIVATE | Modifier.PROTECTED | Modifier.STATIC);
+        }
+
+        // 接口通过反射获取不到父类，但是classfile中接口的父类总是java/lang/Object。
+        Class<?> superClass = clazz.isInterface() ? Object.class : clazz.getSuperclass();
+        String superName = (superClass == null) ? null : internalName(superClass);
+
+        Class<?>[] interfaceClasses = clazz.getInterfaces();
+        List<String> interfaces = new ArrayList<>(interfaceClasses.length);
+        for (Class<?> interfaceClass : interfaceClasses) {
+            interfaces.add(internalName(interfaceClass));
+        }
+
+        Field[] declaredFields = clazz.getDeclaredFields();
+        Map<String, Member> fields = new LinkedHashMap<>(declaredFields.length * 2);
+        for (Field field : declaredFields) {
+            fields.put(field.getName(), new Member(field.getName(), descriptor(field.getType()),
+                    field.getModifiers() & FIELD_MODIFIERS));
+        }
+
+        Method[] declaredMethods = clazz.getDeclaredMethods();
+        Constructor<?>[] declaredConstructors = clazz.getDeclaredConstructors();
+        Map<String, Member> methods = new LinkedHashMap<>((declaredMethods.length + declaredConstructors.length) * 2);
+        for (Constructor<?> constructor : declaredConstructors) {
+            Member member = new Member("<init>", methodDescriptor(constructor.getParameterTypes(), void.class),
+                    constructor.getModifiers() & METHOD_MODIFIERS);
+            methods.put(member.key(), member);
+        }
+        for (Method method : declaredMethods) {
+            Member member = new Member(method.getName(), methodDescriptor(method.getParameterTypes(), method.getReturnType()),
+                    method.getModifiers() & METHOD_MODIFIERS);
+            methods.put(member.key(), member);
+        }
+
+        return new ClassStructure(internalName(clazz), access & CLASS_MODIFIERS, superName, interfaces, fields, methods,
+                false);
+    }
+
+    /**
+     * 检查新的结构信息能否用于重定义当前的类型，收集所有不兼容的地方。
+     *
+     * @param newer    新的结构信息
+     * @param problems 用于收集不兼容的描述信息
+     */
+    void diff(ClassStructure newer, List<String> problems) {
+        String className = javaName(this.name);
+
+        if (!this.name.equals(newer.name)) {
+            problems.add(String.format("类型[%s]的classfile中的类名是[%s]", className, javaName(newer.name)));
+            return;
+        }
+
+        if (this.access != newer.access) {
+            problems.add(String.format("类型[%s]修改了类修饰符[0x%04X]->[0x%04X]", className, this.access, newer.access));
+        }
+
+        if (!equals(this.superName, newer.superName)) {
+            problems.add(String.format("类型[%s]修改了父类[%s]->[%s]", className,
+                    javaName(this.superName), javaName(newer.superName)));
+        }
+
+        if (!this.interfaces.equals(newer.interfaces)) {
+            problems.add(String.format("类型[%s]修改了实现的接口%s->%s", className,
+                    javaNames(this.interfaces), javaNames(newer.interfaces)));
+        }
+
+        for (Member field : this.fields.values()) {
+            Member newField = newer.fields.get(field.name);
+            if (newField == null) {
+                problems.add(String.format("类型[%s]删除了字段[%s]", className, field));
+            } else if (!field.descriptor.equals(newField.descriptor)) {
+                problems.add(String.format("类型[%s]修改了字段[%s]的类型[%s]->[%s]", className, field.name,
+                        field.descriptor, newField.descriptor));
+            } else if (field.access != newField.access) {
+                problems.add(String.format("类型[%s]修改了字段[%s]的修饰符[0x%04X]->[0x%04X]", className, field.name,
+                        field.access, newField.access));
+            }
+        }
+        for (Member newField : newer.fields.values()) {
+            if (!this.fields.containsKey(newField.name)) {
+                problems.add(String.format("类型[%s]新增了字段[%s]", className, newField));
+            }
+        }
+        // JVM同样不支持调整字段的顺序。旧的结构信息来自反射时无法得知字段的真实顺序，交给JVM做最终检查。
+        if (this.fieldsOrdered && newer.fieldsOrdered && this.fields.keySet().equals(newer.fields.keySet())
+                && !new ArrayList<>(this.fields.keySet()).equals(new ArrayList<>(newer.fields.keySet()))) {
+            problems.add(String.format("类型[%s]调整了字段的顺序%s->%s", className, this.fields.keySet(),
+                    newer.fields.keySet()));
+        }
+
+        for (Member method : this.methods.values()) {
+            Member newMethod = newer.methods.get(method.key());
+            if (newMethod == null) {
+                if (!method.isPrivateStaticOrFinal()) {
+                    problems.add(String.format("类型[%s]删除了方法[%s]", className, method));
+                }
+            } else if (method.access != newMethod.access) {
+                problems.add(String.format("类型[%s]修改了方法[%s]的修饰符[0x%04X]->[0x%04X]", className, method,
+                        method.access, newMethod.access));
+            }
+        }
+        for (Member newMethod : newer.methods.values()) {
+            if (!this.methods.containsKey(newMethod.key()) && !newMethod.isPrivateStaticOrFinal()) {
+                problems.add(String.format("类型[%s]新增了方法[%s]", className, newMethod));
+            }
+        }
+    }
+
+    /**
+     * @return 类名，使用内部形式
+     */
+    String getName() {
+        return name;
+    }
+
+    private static boolean equals(String a, String b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+
+    private static String internalName(Class<?> clazz) {
+        return clazz.getName().replace('.', '/');
+    }
+
+    private static String javaName(String internalName) {
+        return (internalName == null) ? null : internalName.replace('/', '.');
+    }
+
+    private static List<String> javaNames(List<String> internalNames) {
+        List<String> names = new ArrayList<>(internalNames.size());
+        for (String internalName : internalNames) {
+            names.add(javaName(internalName));
+        }
+        return names;
+    }
+
+    private static String methodDescriptor(Class<?>[] parameterTypes, Class<?> returnType) {
+        StringBuilder sb = new StringBuilder("(");
+        for (Class<?> parameterType : parameterTypes) {
+            sb.append(descriptor(parameterType));
+        }
+        return sb.append(')').append(descriptor(returnType)).toString();
+    }
+
+    private static String descriptor(Class<?> type) {
+        if (type.isArray()) {
+            return internalName(type);
+        }
+        if (!type.isPrimitive()) {
+            return "L" + internalName(type) + ";";
+        }
+        if (type == int.class) {
+            return "I";
+        } else if (type == long.class) {
+            return "J";
+        } else if (type == boolean.class) {
+            return "Z";
+        } else if (type == byte.class) {
+            return "B";
+        } else if (type == char.class) {
+            return "C";
+        } else if (type == short.class) {
+            return "S";
+        } else if (type == float.class) {
+            return "F";
+        } else if (type == double.class) {
+            return "D";
+        } else {
+            return "V";
+        }
+    }
+
+    private ClassStructure(String name, int access, String superName, List<String> interfaces,
+                           Map<String, Member> fields, Map<String, Member> methods, boolean fieldsOrdered) {
+        this.name = name;
+        this.access = access;
+        this.superName = superName;
+        this.interfaces = Collections.unmodifiableList(interfaces);
+        this.fields = Collections.unmodifiableMap(fields);
+        this.methods = Collections.unmodifiableMap(methods);
+        this.fieldsOrdered = fieldsOrdered;
+    }
+
+    /**
+     * 字段或方法的描述信息。
+     */
+    private static final class Member {
+
+        private final String name;
+
+        private final String descriptor;
+
+        private final int access;
+
+        private Member(String name, String descriptor, int access) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.access = access;
+        }
+
+        private String key() {
+            return this.name + this.descriptor;
+        }
+
+        /**
+         * JVM允许添加或删除private static和private final方法，比如编译器为lambda生成的方法。
+         */
+        private boolean isPrivateStaticOrFinal() {
+            return Modifier.isPrivate(this.access) && (Modifier.isStatic(this.access) || Modifier.isFinal(this.access));
+        }
+
+        @Override
+        public String toString() {
+            return this.name + " " + this.descriptor;
+        }
+
+    }
+
+    /**
+     * classfile解析器。
+     * 先扫描一遍常量池，只记录每一项的偏移位置，之后按需解码用到的字符串。
+     */
+    private static final class Parser {
+
+        private static final int CONSTANT_UTF8 = 1;
+        private static final int CONSTANT_INTEGER = 3;
+        private static final int CONSTANT_FLOAT = 4;
+        private static final int CONSTANT_LONG = 5;
+        private static final int CONSTANT_DOUBLE = 6;
+        private static final int CONSTANT_CLASS = 7;
+        private static final int CONSTANT_STRING = 8;
+        private static final int CONSTANT_FIELDREF = 9;
+        private static final int CONSTANT_METHODREF = 10;
+        private static final int CONSTANT_INTERFACE_METHODREF = 11;
+        private static final int CONSTANT_NAME_AND_TYPE = 12;
+        private static final int CONSTANT_METHOD_HANDLE = 15;
+        private static final int CONSTANT_METHOD_TYPE = 16;
+        private static final int CONSTANT_DYNAMIC = 17;
+        private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+        private static final int CONSTANT_MODULE = 19;
+        private static final int CONSTANT_PACKAGE = 20;
+
+        private final byte[] b;
+
+        /**
+         * 常量池每一项在字节数组中的偏移位置，指向tag之后的第一个字节。
+         */
+        private int[] offsets;
+
+        /**
+         * 已经解码过的字符串常量。
+         */
+        private String[] strings;
+
+        private int position;
+
+        private Parser(byte[] b) {
+            this.b = b;
+        }
+
+        private ClassStructure parse() {
+            if (readInt() != 0xCAFEBABE) {
+                throw new IllegalArgumentException("classfile的魔数错误");
+            }
+            // minor_version、major_version
+            this.position += 4;
+
+            int count = readUnsignedShort();
+            this.offsets = new int[count];
+            this.strings = new String[count];
+            for (int i = 1; i < count; i++) {
+                int tag = this.b[this.position++];
+                this.offsets[i] = this.position;
+                switch (tag) {
+                    case CONSTANT_UTF8:
+                        this.position += 2 + readUnsignedShort(this.position);
+                        break;
+                    case CONSTANT_LONG:
+                    case CONSTANT_DOUBLE:
+                        this.position += 8;
+                        i++;
+                        break;
+                    case CONSTANT_INTEGER:
+                    case CONSTANT_FLOAT:
+                    case CONSTANT_FIELDREF:
+                    case CONSTANT_METHODREF:
+                    case CONSTANT_INTERFACE_METHODREF:
+                    case CONSTANT_NAME_AND_TYPE:
+                    case CONSTANT_DYNAMIC:
+                    case CONSTANT_INVOKE_DYNAMIC:
+                        this.position += 4;
+                        break;
+                    case CONSTANT_METHOD_HANDLE:
+                        this.position += 3;
+                        break;
+                    case CONSTANT_CLASS:
+                    case CONSTANT_STRING:
+                    case CONSTANT_METHOD_TYPE:
+                    case CONSTANT_MODULE:
+                    case CONSTANT_PACKAGE:
+                        this.position += 2;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("未知的常量池类型[" + tag + "]，位置[" + i + "]");
+                }
+            }
+
+            int access = readUnsignedShort() & CLASS_MODIFIERS;
+            String name = readClass(readUnsignedShort());
+            int superIndex = readUnsignedShort();
+            String superName = (superIndex == 0) ? null : readClass(superIndex);
+
+            int interfaceCount = readUnsignedShort();
+            List<String> interfaces = new ArrayList<>(interfaceCount);
+            for (int i = 0; i < interfaceCount; i++) {
+                interfaces.add(readClass(readUnsignedShort()));
+            }
+
+            int fieldCount = readUnsignedShort();
+            Map<String, Member> fields = new LinkedHashMap<>(fieldCount * 2);
+            for (int i = 0; i < fieldCount; i++) {
+                Member field = readMember(FIELD_MODIFIERS);
+                fields.put(field.name, field);
+            }
+
+            int methodCount = readUnsignedShort();
+            Map<String, Member> methods = new LinkedHashMap<>(methodCount * 2);
+            for (int i = 0; i < methodCount; i++) {
+                Member method = readMember(METHOD_MODIFIERS);
+                if (!CLASS_INITIALIZER.equals(method.name)) {
+                    methods.put(method.key(), method);
+                }
+            }
+
+            // 类的属性与兼容性检查无关，不再继续解析。
+            return new ClassStructure(name, access, superName, interfaces, fields, methods, true);
+        }
+
+        private Member readMember(int modifiers) {
+            int access = readUnsignedShort() & modifiers;
+            String name = readUtf8(readUnsignedShort());
+            String descriptor = readUtf8(readUnsignedShort());
+
+            // 跳过字段或方法的所有属性，包括方法体。
+            int attributeCount = readUnsignedShort();
+            for (int i = 0; i < attributeCount; i++) {
+                this.position += 2;
+                int length = readInt();
+                this.position += length;
+            }
+            return new Member(name, descriptor, access);
+        }
+
+        private String readClass(int index) {
+            return readUtf8(readUnsignedShort(this.offsets[index]));
+        }
+
+        private String readUtf8(int index) {
+            String s = this.strings[index];
+            if (s != null) {
+                return s;
+            }
+
+            // 按照modified UTF-8格式进行解码。
+            int offset = this.offsets[index];
+            int length = readUnsignedShort(offset);
+            int start = offset + 2;
+            int end = start + length;
+            char[] chars = new char[length];
+            int count = 0;
+            for (int i = start; i < end; ) {
+                int c = this.b[i++] & 0xFF;
+                if (c < 0x80) {
+                    chars[count++] = (char) c;
+                } else if (c < 0xE0) {
+                    chars[count++] = (char) (((c & 0x1F) << 6) | (this.b[i++] & 0x3F));
+                } else {
+                    chars[count++] = (char) (((c & 0x0F) << 12) | ((this.b[i++] & 0x3F) << 6) | (this.b[i++] & 0x3F));
+                }
+            }
+            s = new String(chars, 0, count);
+            this.strings[index] = s;
+            return s;
+        }
+
+        private int readUnsignedShort() {
+            int value = readUnsignedShort(this.position);
+            this.position += 2;
+            return value;
+        }
+
+        private int readUnsignedShort(int offset) {
+            return ((this.b[offset] & 0xFF) << 8) | (this.b[offset + 1] & 0xFF);
+        }
+
+        private int readInt() {
+            int value = ((this.b[this.position] & 0xFF) << 24) | ((this.b[this.position + 1] & 0xFF) << 16)
+                    | ((this.b[this.position + 2] & 0xFF) << 8) | (this.b[this.position + 3] & 0xFF);
+            this.position += 4;
+            return value;
+        }
+
+    }
+
+}
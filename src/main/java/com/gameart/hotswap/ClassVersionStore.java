@@ -0,0 +1,288 @@
+package com.gameart.hotswap;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 被热更过的类型的版本历史。
+ *
+ * 每个类型在第一次被热更之前记录一个基线版本，之后每次热更成功都会追加一个新的版本。
+ * 版本按照代数(generation)组织，每次应用阶段或回滚成功后代数加一，代数0表示基线。
+ * 所有版本的字节都经过压缩后保存在堆外内存中，不会占用堆空间，回滚时只需要解压，不需要读取磁盘或jar包。
+ * 压缩在准备阶段或者后台线程中完成，应用阶段只复制压缩后的字节。
+ */
+class ClassVersionStore {
+
+    /**
+     * 堆外内存块的大小。
+     */
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * 每个类型的版本历史，类型被卸载后自动移除。
+     */
+    private final Map<Class<?>, List<Version>> histories = new WeakHashMap<>();
+
+    /**
+     * 当前正在写入的堆外内存块。
+     */
+    private ByteBuffer chunk;
+
+    /**
+     * 当前的代数。
+     */
+    private int generation;
+
+    /**
+     * 判断某个类型是否已经记录了基线版本。
+     *
+     * @param clazz 类型
+     * @return 如果已经记录了就返回true，否则返回false
+     */
+    synchronized boolean hasBaseline(Class<?> clazz) {
+        return this.histories.containsKey(clazz);
+    }
+
+    /**
+     * 记录某个类型第一次被热更之前的字节。
+     * 基线版本在应用阶段获取，先不压缩直接保存在堆中，之后通过{@link #compactBaselines()}在后台线程中压缩。
+     *
+     * @param clazz     类型
+     * @param classFile 第一次被热更之前的字节
+     */
+    synchronized void putBaseline(Class<?> clazz, byte[] classFile) {
+        if (!this.histories.containsKey(clazz)) {
+            List<Version> history = new ArrayList<>(2);
+            history.add(new Version(0, null, classFile, classFile.length, PatchStore.checksum(classFile)));
+            this.histories.put(clazz, history);
+        }
+    }
+
+    /**
+     * 压缩所有还保存在堆中的基线版本，并写入堆外内存。
+     */
+    void compactBaselines() {
+        List<Map.Entry<Class<?>, Version>> raw = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<Class<?>, List<Version>> e : this.histories.entrySet()) {
+                Version baseline = e.getValue().get(0);
+                if (baseline.raw != null) {
+                    raw.add(new AbstractMap.SimpleEntry<>(e.getKey(), baseline));
+                }
+            }
+        }
+        if (raw.isEmpty()) {
+            return;
+        }
+
+        List<Deflated> deflated = new ArrayList<>(raw.size());
+        for (Map.Entry<Class<?>, Version> e : raw) {
+            deflated.add(deflate(e.getValue().raw));
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < raw.size(); i++) {
+                List<Version> history = this.histories.get(raw.get(i).getKey());
+                if ((history != null) && (history.get(0) == raw.get(i).getValue())) {
+                    history.set(0, store(0, deflated.get(i)));
+                }
+            }
+        }
+    }
+
+    /**
+     * 记录一批重定义成功的类型，代数加一。
+     * 没有基线版本的类型无法回滚，不会被记录。
+     *
+     * @param classes    被重定义的类型
+     * @param classFiles 类型对应的新的字节，在准备阶段通过{@link #deflate(byte[])}压缩
+     * @return 新的代数
+     */
+    synchronized int putAll(List<Class<?>> classes, List<Deflated> classFiles) {
+        this.generation++;
+        for (int i = 0; i < classes.size(); i++) {
+            List<Version> history = this.histories.get(classes.get(i));
+            if (history != null) {
+                history.add(store(this.generation, classFiles.get(i)));
+            }
+        }
+        return this.generation;
+    }
+
+    /**
+     * 获取所有类型在某一代时的字节，当前已经是这个版本的类型会被忽略。
+     *
+     * @param generation 目标代数，0表示基线
+     * @return 需要被重定义的类型以及对应的字节数组
+     */
+    synchronized Map<Class<?>, byte[]> get(int generation) {
+        Map<Class<?>, byte[]> result = new LinkedHashMap<>();
+        for (Map.Entry<Class<?>, List<Version>> e : this.histories.entrySet()) {
+            List<Version> history = e.getValue();
+            Version target = history.get(0);
+            for (Version version : history) {
+                if (version.generation <= generation) {
+                    target = version;
+                }
+            }
+
+            Version current = history.get(history.size() - 1);
+            if ((target != current) && !target.sameContent(current)) {
+                result.put(e.getKey(), target.bytes());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return 当前的代数
+     */
+    synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * 压缩一个版本的字节，不需要持有锁，可以在准备阶段执行。
+     *
+     * @param classFile 类型的字节
+     * @return 压缩后的字节
+     */
+    static Deflated deflate(byte[] classFile) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(classFile);
+        deflater.finish();
+        byte[] buffer = new byte[classFile.length + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                byte[] bigger = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, bigger, 0, length);
+                buffer = bigger;
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        deflater.end();
+        return new Deflated(buffer, length, classFile.length, PatchStore.checksum(classFile));
+    }
+
+    /**
+     * 把压缩后的字节写入堆外内存。
+     */
+    private Version store(int generation, Deflated deflated) {
+        int length = deflated.compressedLength;
+        ByteBuffer target;
+        if (length > CHUNK_SIZE / 4) {
+            // 较大的类型单独分配一块堆外内存，避免浪费当前内存块的剩余空间。
+            target = ByteBuffer.allocateDirect(length);
+        } else {
+            if ((this.chunk == null) || (this.chunk.remaining() < length)) {
+                this.chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            }
+            target = this.chunk;
+        }
+
+        int offset = target.position();
+        target.put(deflated.data, 0, length);
+        ByteBuffer data = target.duplicate();
+        data.position(offset);
+        data.limit(offset + length);
+        return new Version(generation, data.slice(), null, deflated.length, deflated.checksum);
+    }
+
+    /**
+     * 压缩后还没有写入版本历史的字节。
+     */
+    static final class Deflated {
+
+        private final byte[] data;
+
+        private final int compressedLength;
+
+        private final int length;
+
+        private final int checksum;
+
+        private Deflated(byte[] data, int compressedLength, int length, int checksum) {
+            this.data = data;
+            this.compressedLength = compressedLength;
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+    }
+
+    /**
+     * 类型的一个版本。
+     */
+    private static final class Version {
+
+        private final int generation;
+
+        /**
+         * 压缩后的字节，位于堆外内存中，还没有压缩时为null。
+         */
+        private final ByteBuffer data;
+
+        /**
+         * 还没有压缩的字节，只有刚获取的基线版本使用。
+         */
+        private final byte[] raw;
+
+        private final int length;
+
+        private final int checksum;
+
+        private Version(int generation, ByteBuffer data, byte[] raw, int length, int checksum) {
+            this.generation = generation;
+            this.data = data;
+            this.raw = raw;
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+        private boolean sameContent(Version other) {
+            return (this.length == other.length) && (this.checksum == other.checksum);
+        }
+
+        /**
+         * @return 解压后的字节
+         */
+        private byte[] bytes() {
+            if (this.raw != null) {
+                return this.raw.clone();
+            }
+
+            byte[] compressed = new byte[this.data.remaining()];
+            this.data.duplicate().get(compressed);
+
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                byte[] classFile = new byte[this.length];
+                int n = 0;
+                while (n < this.length) {
+                    int count = inflater.inflate(classFile, n, this.length - n);
+                    if ((count == 0) && (inflater.finished() || inflater.needsInput())) {
+                        throw new IllegalStateException("版本数据不完整");
+                    }
+                    n += count;
+                }
+                return classFile;
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("版本数据损坏", e);
+            } finally {
+                inflater.end();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.gameart.hotswap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+
+/**
+ * HotSpot虚拟机内部计数器的快照，用于观察一次热更期间的安全点和被丢弃的编译任务。
+ *
+ * 虚拟机没有提供已编译方法被去优化(被标记为not entrant)的计数器，重定义导致的去优化需要通过同一个JFR记录中的
+ * jdk.Deoptimization事件(JDK 14及以上版本)观察。
+ *
+ * 这些计数器来自sun.management包中的内部接口，在JDK 9及以上版本需要添加启动参数
+ * --add-exports java.management/sun.management=ALL-UNNAMED，否则所有计数器的值都是-1。
+ */
+final class HotSpotCounters {
+
+    private static Logger logger = LoggerFactory.getLogger(HotSpotCounters.class);
+
+    private static final Object RUNTIME_MBEAN;
+    private static final Method SAFEPOINT_COUNT;
+    private static final Method TOTAL_SAFEPOINT_TIME;
+
+    private static final Object COMPILATION_MBEAN;
+    private static final Method INVALIDATED_COMPILE_TASK_COUNT;
+
+    static {
+        Object runtimeMBean = null;
+        Method safepointCount = null;
+        Method totalSafepointTime = null;
+        Object compilationMBean = null;
+        Method invalidatedCompileTaskCount = null;
+        try {
+            Class<?> helper = Class.forName("sun.management.ManagementFactoryHelper");
+
+            runtimeMBean = helper.getMethod("getHotspotRuntimeMBean").invoke(null);
+            Class<?> runtimeClass = Class.forName("sun.management.HotspotRuntimeMBean");
+            safepointCount = runtimeClass.getMethod("getSafepointCount");
+            totalSafepointTime = runtimeClass.getMethod("getTotalSafepointTime");
+
+            compilationMBean = helper.getMethod("getHotspotCompilationMBean").invoke(null);
+            Class<?> compilationClass = Class.forName("sun.management.HotspotCompilationMBean");
+            invalidatedCompileTaskCount = compilationClass.getMethod("getInvalidatedCompileCount");
+
+            // 提前调用一次，确认当前虚拟机允许访问这些内部接口。
+            safepointCount.invoke(runtimeMBean);
+        } catch (Throwable t) {
+            logger.info("无法访问HotSpot内部计数器，热更监控中的安全点和编译任务数据不可用：{}", t.toString());
+            runtimeMBean = null;
+            compilationMBean = null;
+        }
+        RUNTIME_MBEAN = runtimeMBean;
+        SAFEPOINT_COUNT = safepointCount;
+        TOTAL_SAFEPOINT_TIME = totalSafepointTime;
+        COMPILATION_MBEAN = compilationMBean;
+        INVALIDATED_COMPILE_TASK_COUNT = invalidatedCompileTaskCount;
+    }
+
+    /**
+     * 进入安全点的总次数。
+     */
+    final long safepointCount;
+
+    /**
+     * 处于安全点的总时间，单位毫秒。
+     */
+    final long safepointTime;
+
+    /**
+     * 编译完成时发现依赖已经失效、没有被安装而直接丢弃的编译任务总数。
+     * 已经安装的编译代码被重定义去优化时不会计入这个计数器。
+     */
+    final long invalidatedCompileTasks;
+
+    /**
+     * 获取当前计数器的快照。
+     *
+     * @return 计数器快照，无法读取的计数器的值为-1
+     */
+    static HotSpotCounters sample() {
+        return new HotSpotCounters(
+                read(RUNTIME_MBEAN, SAFEPOINT_COUNT),
+                read(RUNTIME_MBEAN, TOTAL_SAFEPOINT_TIME),
+                read(COMPILATION_MBEAN, INVALIDATED_COMPILE_TASK_COUNT));
+    }
+
+    /**
+     * 计算两个快照之间某个计数器的差值。
+     *
+     * @return 计数器的差值，如果计数器无法读取就返回-1
+     */
+    static long delta(long before, long after) {
+        return ((before < 0) || (after < 0)) ? -1 : (after - before);
+    }
+
+    private static long read(Object mbean, Method method) {
+        if (mbean == null) {
+            return -1;
+        }
+        try {
+            return (Long) method.invoke(mbean);
+        } catch (Throwable t) {
+            return -1;
+        }
+    }
+
+    private HotSpotCounters(long safepointCount, long safepointTime, long invalidatedCompileTasks) {
+        this.safepointCount = safepointCount;
+        this.safepointTime = safepointTime;
+        this.invalidatedCompileTasks = invalidatedCompileTasks;
+    }
+
+}
@@ -5,7 +5,13 @@ import org.slf4j.LoggerFactory;
 
 import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.Instrumentation;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 热更新代理。
@@ -16,46 +22,204 @@ public class HotSwapAgent {
 
     static Logger logger = LoggerFactory.getLogger(HotSwapAgent.class);
 
+    /**
+     * 代理参数中多个参数之间的分隔符。
+     */
+    static final String ARGS_SEPARATOR = ",";
+
+    /**
+     * 代理参数中指定补丁存储文件路径的参数名。
+     */
+    private static final String ARG_PATCH_STORE = "patchStore";
+
+    /**
+     * attach方式启动代理时，请求执行热更的参数名。
+     */
+    static final String ARG_HOTSWAP = "hotswap";
+
+    /**
+     * attach方式启动代理时，指定补丁位置的参数名，没有指定时使用classpath中的热更配置文件。
+     */
+    static final String ARG_PATCH = "patch";
+
+    /**
+     * attach方式启动代理时，指定接收热更结果的本地端口的参数名。
+     */
+    static final String ARG_REPORT = "report";
+
+    /**
+     * attach方式启动代理时，指定热更结果中的目标标识的参数名。
+     */
+    static final String ARG_ID = "id";
+
+    /**
+     * attach方式启动代理时，指定汇报热更结果时使用的令牌的参数名。
+     */
+    static final String ARG_TOKEN = "token";
+
     private static Instrumentation instrumentation;
 
+    /**
+     * 已加载类型的索引，用于查找所有类加载器中的同名类型。
+     */
+    private static volatile LoadedClassIndex classIndex;
+
+    /**
+     * 重载时同时获取基线版本的转换器，代理不支持重新转换时为null。
+     */
+    private static volatile BaselineCaptureTransformer captureTransformer;
+
+    /**
+     * 已经应用的补丁的持久化存储，没有指定存储文件时为null。
+     */
+    private static volatile PatchStore patchStore;
+
     /**
      * 如果在启动JVM时指定了-javaagent参数，JVM在初始化后将会调用此方法，然后调用应用程序的main方法。
+     * 参数使用key=value的形式，多个参数之间用逗号分隔，比如：-javaagent:hotswap.jar=patchStore=data/hotswap.patches
      *
      * @param agentArgs 在命令行中传递的参数
      * @param inst      jvm传递的Instrumentation实例
      */
     public static void premain(String agentArgs, Instrumentation inst) {
-        HotSwapAgent.instrumentation = inst;
+        init(inst);
+
+        Map<String, String> args = parseArgs(agentArgs);
+        String patchStorePath = args.get(ARG_PATCH_STORE);
+        if (patchStorePath != null) {
+            // 补丁存储出现任何问题都不能阻止JVM启动，只是不再重放补丁。
+            try {
+                PatchStore store = PatchStore.open(Paths.get(patchStorePath));
+                inst.addTransformer(new PatchReplayTransformer(store));
+                HotSwapAgent.patchStore = store;
+            } catch (Throwable t) {
+                logger.error("打开补丁存储文件[{}]失败，不会重放补丁", patchStorePath, t);
+            }
+        }
         logger.info("HotSwapAgent.premain has been invoked.");
     }
 
+    /**
+     * 记录JVM传递的Instrumentation实例。
+     * 代理可能先通过-javaagent启动，之后又通过attach方式被调用，只有第一次调用生效。
+     *
+     * @param inst jvm传递的Instrumentation实例
+     */
+    private static synchronized void init(Instrumentation inst) {
+        if (HotSwapAgent.instrumentation == null) {
+            HotSwapAgent.instrumentation = inst;
+            HotSwapAgent.classIndex = new LoadedClassIndex(inst);
+            if (inst.isRetransformClassesSupported()) {
+                BaselineCaptureTransformer transformer = new BaselineCaptureTransformer(inst);
+                inst.addTransformer(transformer, true);
+                HotSwapAgent.captureTransformer = transformer;
+            }
+        }
+    }
+
+    /**
+     * 查找某个类名在所有类加载器中已经加载的类型，查找时不会初始化类型。
+     *
+     * @param className 类名
+     * @return 所有同名的类型，代理没有启动或者没有找到时返回空列表
+     */
+    static List<Class<?>> resolveClasses(String className) {
+        LoadedClassIndex index = HotSwapAgent.classIndex;
+        return (index == null) ? Collections.emptyList() : index.resolve(className);
+    }
+
+    /**
+     * 解析代理参数。
+     *
+     * @param agentArgs 代理参数，可以为null
+     * @return 参数名与参数值的映射，只有参数名的参数对应的值为空字符串
+     */
+    static Map<String, String> parseArgs(String agentArgs) {
+        Map<String, String> args = new LinkedHashMap<>();
+        if (agentArgs == null) {
+            return args;
+        }
+
+        for (String arg : agentArgs.split(ARGS_SEPARATOR)) {
+            arg = arg.trim();
+            if (arg.isEmpty()) {
+                continue;
+            }
+
+            int index = arg.indexOf('=');
+            if (index < 0) {
+                args.put(arg, "");
+            } else {
+                args.put(arg.substring(0, index).trim(), arg.substring(index + 1).trim());
+            }
+        }
+        return args;
+    }
+
+    /**
+     * @return 已经应用的补丁的持久化存储，没有指定存储文件时返回null
+     */
+    static PatchStore getPatchStore() {
+        return HotSwapAgent.patchStore;
+    }
+
     /**
      * 如果是在在JVM启动之后，通过attach方式启动代理，将会调用此方法。
+     * 参数使用key=value的形式，多个参数之间用逗号分隔，比如：hotswap,patch=/data/patch-1.jar,report=40123,id=1234,token=9f2c...，
+     * 参数值中不能包含逗号。
+     * 指定了report参数时，热更完成后会把结果发送到本机的对应端口。
      *
      * @param agentArgs 传递给代理的参数
      * @param inst      jvm传递的Instrumentation实例
      */
     public static void agentmain(String agentArgs, Instrumentation inst) {
-        if ("hotswap".equals(agentArgs)) {
-            logger.info("HotSwapAgent.agentmain has been invoked.");
-            HotSwapManager.getInstance().reload();
-        } else {
+        init(inst);
+        Map<String, String> args = parseArgs(agentArgs);
+        if (!args.containsKey(ARG_HOTSWAP)) {
             logger.warn("unknown agentmain's agentArgs: {}.", agentArgs);
+            return;
+        }
+
+        logger.info("HotSwapAgent.agentmain has been invoked.");
+        String patch = args.get(ARG_PATCH);
+        CompletableFuture<HotSwapResult> future = HotSwapManager.getInstance()
+                .reload(((patch == null) || patch.isEmpty()) ? null : Paths.get(patch));
+
+        String report = args.get(ARG_REPORT);
+        if ((report != null) && !report.isEmpty()) {
+            // 这里抛出的异常会传递到发起attach的进程，热更已经提交，只记录错误，不汇报结果。
+            int port;
+            try {
+                port = Integer.parseInt(report);
+            } catch (NumberFormatException e) {
+                logger.error("代理参数[{}]的值[{}]不是有效的端口，不汇报热更结果", ARG_REPORT, report);
+                return;
+            }
+            String id = args.getOrDefault(ARG_ID, "");
+            String token = args.getOrDefault(ARG_TOKEN, "");
+            future.whenCompleteAsync((result, t) -> RolloutReport.send(port, token, id,
+                    (result != null) ? result : HotSwapResult.failure(String.valueOf(t))));
         }
     }
 
     /**
      * 同时对多个类进行重载。
      *
-     * @param classNames 被重载的类名
+     * @param classes    被重载的类型
      * @param classFiles 类对应的新的字节数组
      * @throws Throwable 重载类型出现错误时抛出此异常
      */
-    static void reload(List<String> classNames, List<byte[]> classFiles) throws Throwable {
-        int size = classNames.size();
+    static void reload(List<Class<?>> classes, List<byte[]> classFiles) throws Throwable {
+        BaselineCaptureTransformer transformer = HotSwapAgent.captureTransformer;
+        if (transformer != null) {
+            transformer.redefine(classes, classFiles, Collections.emptySet());
+            return;
+        }
+
+        int size = classes.size();
         ClassDefinition[] definitions = new ClassDefinition[size];
         for (int i = 0; i < size; i++) {
-            Class<?> clazz = Class.forName(classNames.get(i));
+            Class<?> clazz = classes.get(i);
             ClassDefinition definition = new ClassDefinition(clazz, classFiles.get(i));
             definitions[i] = definition;
         }
@@ -63,16 +227,26 @@ public class HotSwapAgent {
     }
 
     /**
-     * 对某个类进行重载。
+     * 同时对多个类进行重载，并获取其中一部分类型在重载之前的字节，获取与重载在同一次JVM操作中完成。
+     * 需要代理声明Can-Retransform-Classes，否则只重载类型，不获取字节。
      *
-     * @param className 被重载的类名
-     * @param classFile 类对应的新的字节数组
+     * @param classes    被重载的类型
+     * @param classFiles 类对应的新的字节数组
+     * @param capture    需要获取重载之前的字节的类型，比如第一次被热更的类型
+     * @return 类型与重载之前的字节的映射，不支持重新转换时返回空的映射
      * @throws Throwable 重载类型出现错误时抛出此异常
      */
-    static void reload(String className, byte[] classFile) throws Throwable {
-        Class<?> clazz = Class.forName(className);
-        ClassDefinition definition = new ClassDefinition(clazz, classFile);
-        HotSwapAgent.instrumentation.redefineClasses(definition);
+    static Map<Class<?>, byte[]> reload(List<Class<?>> classes, List<byte[]> classFiles,
+                                        Set<Class<?>> capture) throws Throwable {
+        BaselineCaptureTransformer transformer = HotSwapAgent.captureTransformer;
+        if (transformer == null) {
+            if (!capture.isEmpty()) {
+                logger.warn("代理不支持重新转换类型，无法获取类型当前的字节");
+            }
+            reload(classes, classFiles);
+            return Collections.emptyMap();
+        }
+        return transformer.redefine(classes, classFiles, capture);
     }
 
 }
@@ -0,0 +1,106 @@
+package com.gameart.hotswap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一次重定义操作涉及的类型，对应热更配置文件中的一行。
+ * 在准备阶段完成类型查找、字节读取和兼容性检查，在应用阶段只需要调用JVM重定义类型。
+ */
+final class HotSwapBatch {
+
+    /**
+     * 热更配置文件中对应的一行，回滚时为null。
+     */
+    private final String entry;
+
+    /**
+     * 配置中的类名。
+     */
+    private final String[] classNames;
+
+    /**
+     * 被重定义的类型。
+     */
+    private final List<Class<?>> classes;
+
+    /**
+     * 类型对应的新的字节数组。
+     */
+    private final List<byte[]> classFiles;
+
+    /**
+     * 新的字节压缩后的形式，在准备阶段压缩，应用阶段直接写入版本历史。
+     */
+    private final List<ClassVersionStore.Deflated> deflatedClassFiles;
+
+    /**
+     * 兼容性检查结果，重定义成功后用于记录类型当前的结构信息。
+     */
+    private final HotSwapChecker.Result checkResult;
+
+    HotSwapBatch(String entry, String[] classNames, List<Class<?>> classes, List<byte[]> classFiles,
+                 HotSwapChecker.Result checkResult) {
+        this.entry = entry;
+        this.classNames = classNames;
+        this.classes = classes;
+        this.classFiles = classFiles;
+        this.checkResult = checkResult;
+        this.deflatedClassFiles = new ArrayList<>(classFiles.size());
+        for (byte[] classFile : classFiles) {
+            this.deflatedClassFiles.add(ClassVersionStore.deflate(classFile));
+        }
+    }
+
+    /**
+     * @return 如果只包含一个类型就返回true，否则返回false
+     */
+    boolean isSingle() {
+        return this.classNames.length == 1;
+    }
+
+    /**
+     * @return 配置中的类名数量
+     */
+    int size() {
+        return this.classNames.length;
+    }
+
+    /**
+     * @return 所有新的字节数组的总长度
+     */
+    long getByteSize() {
+        long byteSize = 0;
+        for (byte[] classFile : this.classFiles) {
+            byteSize += classFile.length;
+        }
+        return byteSize;
+    }
+
+    String getEntry() {
+        return entry;
+    }
+
+    List<Class<?>> getClasses() {
+        return classes;
+    }
+
+    List<byte[]> getClassFiles() {
+        return classFiles;
+    }
+
+    List<ClassVersionStore.Deflated> getDeflatedClassFiles() {
+        return deflatedClassFiles;
+    }
+
+    HotSwapChecker.Result getCheckResult() {
+        return checkResult;
+    }
+
+    @Override
+    public String toString() {
+        return isSingle() ? this.classNames[0] : Arrays.toString(this.classNames);
+    }
+
+}
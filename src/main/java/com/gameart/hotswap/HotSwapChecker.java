@@ -0,0 +1,133 @@
+package com.gameart.hotswap;
+
+import jdk.jfr.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+/**
+ * 热更兼容性检查器。
+ * 在调用JVM重定义类型之前，比较新旧classfile的结构，提前拒绝JVM不支持的修改，
+ * 避免为一次注定失败的重定义操作付出进入安全点的代价。
+ *
+ * 检查的内容包括：类修饰符、父类、接口、字段(名称、类型、修饰符)以及方法(签名、修饰符)。
+ * 类型在第一次被热更之前，旧的结构信息通过反射获取；热更成功后，记录新classfile的结构信息，用于下一次检查。
+ * 字段的顺序只有在新旧结构信息都来自classfile时才会检查，第一次热更时调整字段顺序的修改会由JVM拒绝。
+ */
+class HotSwapChecker {
+
+    private static Logger logger = LoggerFactory.getLogger(HotSwapChecker.class);
+
+    /**
+     * 每个类型当前生效的结构信息，如果类型还没有被热更过，值为null。
+     */
+    private final ClassValue<AtomicReference<ClassStructure>> currentStructures = new ClassValue<AtomicReference<ClassStructure>>() {
+        @Override
+        protected AtomicReference<ClassStructure> computeValue(Class<?> type) {
+            return new AtomicReference<>();
+        }
+    };
+
+    /**
+     * 检查一批类型能否使用新的classfile进行重定义。
+     * 每个类型的解析与比较操作会并行执行。
+     *
+     * @param classes    被重定义的类型
+     * @param classFiles 类型对应的新的字节数组
+     * @return 检查结果，包含所有不兼容的描述信息
+     */
+    Result check(List<Class<?>> classes, List<byte[]> classFiles) {
+        int size = classes.size();
+        ClassStructure[] structures = new ClassStructure[size];
+        List<List<String>> problems = new ArrayList<>(Collections.nCopies(size, Collections.<String>emptyList()));
+
+        IntStream.range(0, size).parallel().forEach(i -> {
+            Class<?> clazz = classes.get(i);
+            List<String> list = new ArrayList<>(0);
+            problems.set(i, list);
+
+            ClassStructure newer;
+            try {
+                newer = ClassStructure.parse(classFiles.get(i));
+            } catch (IllegalArgumentException e) {
+                list.add(String.format("类型[%s]的classfile格式错误：%s", clazz.getName(), e.getMessage()));
+                return;
+            }
+            structures[i] = newer;
+
+            ClassStructure current = this.currentStructures.get(clazz).get();
+            if ((current == null) && Event.class.isAssignableFrom(clazz)) {
+                // JFR事件类型在加载时会被插入额外的字段和方法，反射获取到的结构与classfile不一致，交给JVM做最终检查。
+                return;
+            }
+            if (current == null) {
+                try {
+                    current = ClassStructure.of(clazz);
+                } catch (LinkageError e) {
+                    // 类型引用的其它类型无法加载，交给JVM做最终检查。
+                    logger.warn("热更检查时无法获取类型[{}]的结构信息，跳过兼容性检查", clazz.getName(), e);
+                    return;
+                }
+            }
+            current.diff(newer, list);
+        });
+
+        List<String> all = new ArrayList<>(0);
+        for (List<String> list : problems) {
+            all.addAll(list);
+        }
+        return new Result(classes, structures, all);
+    }
+
+    /**
+     * 在类型重定义成功后，记录类型当前生效的结构信息。
+     *
+     * @param result 重定义之前的检查结果
+     */
+    void commit(Result result) {
+        for (int i = 0; i < result.classes.size(); i++) {
+            if (result.structures[i] != null) {
+                this.currentStructures.get(result.classes.get(i)).set(result.structures[i]);
+            }
+        }
+    }
+
+    /**
+     * 兼容性检查结果。
+     */
+    static final class Result {
+
+        private final List<Class<?>> classes;
+
+        private final ClassStructure[] structures;
+
+        private final List<String> problems;
+
+        private Result(List<Class<?>> classes, ClassStructure[] structures, List<String> problems) {
+            this.classes = classes;
+            this.structures = structures;
+            this.problems = problems;
+        }
+
+        /**
+         * @return 如果所有类型都可以被重定义就返回true，否则返回false
+         */
+        boolean isCompatible() {
+            return this.problems.isEmpty();
+        }
+
+        /**
+         * @return 所有不兼容的描述信息
+         */
+        List<String> getProblems() {
+            return problems;
+        }
+
+    }
+
+}
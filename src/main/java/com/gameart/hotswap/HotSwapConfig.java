@@ -0,0 +1,132 @@
+package com.gameart.hotswap;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 解析后的热更配置文件，不可修改。
+ *
+ * 空行和以#开头的注释行会被忽略，以switch=开头的行是热更开关，只要有一行是switch=on就认为开关被打开，
+ * 其余的每一行都是一个热更项，包含一个类名或者用分号分隔的多个类名。
+ */
+final class HotSwapConfig {
+
+    private static final String SWITCH_PREFIX = "switch=";
+
+    private static final String SWITCH_ON = "switch=on";
+
+    /**
+     * 热更开关是否被打开。
+     */
+    private final boolean enabled;
+
+    /**
+     * 所有热更项，按照配置文件中的顺序排列。
+     */
+    private final List<String> entries;
+
+    private HotSwapConfig(boolean enabled, List<String> entries) {
+        this.enabled = enabled;
+        this.entries = entries;
+    }
+
+    /**
+     * 解析热更配置文件的内容。
+     *
+     * @param content 配置文件的字节，使用UTF-8编码
+     * @return 解析后的配置
+     */
+    static HotSwapConfig parse(byte[] content) {
+        boolean enabled = false;
+        List<String> entries = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                // 以#开头的行被认为是注释行，直接忽略。
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                if (line.startsWith(SWITCH_PREFIX)) {
+                    enabled |= line.equals(SWITCH_ON);
+                } else {
+                    entries.add(line);
+                }
+            }
+        } catch (IOException e) {
+            // 从内存中读取，不会出现这种情况。
+            throw new UncheckedIOException(e);
+        }
+        return new HotSwapConfig(enabled, Collections.unmodifiableList(entries));
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    List<String> getEntries() {
+        return entries;
+    }
+
+    /**
+     * 获取相对于上一次解析的结果新增或者修改过的热更项。
+     * 上一次解析时热更开关没有打开的话，所有热更项都被认为是新增的。
+     *
+     * @param previous 上一次解析的结果，可以为null
+     * @return 新增或者修改过的热更项，按照配置文件中的顺序排列
+     */
+    List<String> changedSince(HotSwapConfig previous) {
+        if ((previous == null) || !previous.enabled) {
+            return this.entries;
+        }
+
+        Set<String> old = new HashSet<>(previous.entries);
+        List<String> changed = new ArrayList<>();
+        for (String entry : this.entries) {
+            if (!old.contains(entry)) {
+                changed.add(entry);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 判断两次解析的结果是否等价，只有注释、空行或者行的顺序不同的配置是等价的。
+     *
+     * @param other 另一次解析的结果，可以为null
+     * @return 如果热更开关相同并且包含同样的热更项就返回true，否则返回false
+     */
+    boolean hasSameEntries(HotSwapConfig other) {
+        return (other != null) && (this.enabled == other.enabled)
+                && new HashSet<>(this.entries).equals(new HashSet<>(other.entries));
+    }
+
+    /**
+     * 得到一个去掉了部分热更项的配置，用于记录哪些热更项已经生效。
+     *
+     * @param removed 需要去掉的热更项
+     * @return 新的配置，没有需要去掉的热更项时返回自身
+     */
+    HotSwapConfig without(Collection<String> removed) {
+        if (removed.isEmpty()) {
+            return this;
+        }
+
+        List<String> entries = new ArrayList<>(this.entries);
+        entries.removeAll(removed);
+        return new HotSwapConfig(this.enabled, Collections.unmodifiableList(entries));
+    }
+
+}
@@ -0,0 +1,378 @@
+package com.gameart.hotswap;
+
+import com.sun.tools.attach.VirtualMachine;
+import com.sun.tools.attach.VirtualMachineDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * 多进程热更启动器。
+ * 查找本机上的目标JVM，通过attach方式并发加载热更代理，并收集每个进程的热更结果。
+ *
+ * 目标进程通过本机端口汇报热更结果，每次热更使用一个随机令牌，只接受携带令牌的汇报，同一个目标只接受一次汇报。
+ *
+ * 目标按照波次执行：第一波是金丝雀，只包含少量进程，之后每一波包含固定数量的进程，
+ * 同一波内的进程并发执行，上一波全部成功后才会执行下一波。
+ *
+ * 命令行用法：
+ * <pre>
+ * java -cp hotswap.jar com.gameart.hotswap.HotSwapLauncher --agent hotswap.jar --patch patch-1.jar
+ *      (--match GameServer | --pid 1234,1235) [--canary 1] [--wave 10] [--timeout 60] [--continue-on-failure]
+ * </pre>
+ */
+public class HotSwapLauncher {
+
+    private static Logger logger = LoggerFactory.getLogger(HotSwapLauncher.class);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * 代理jar包的路径。
+     */
+    private final Path agentJar;
+
+    /**
+     * 补丁的位置，为null时目标进程使用classpath中的热更配置文件。
+     */
+    private final Path patch;
+
+    /**
+     * 金丝雀波次包含的进程数量。
+     */
+    private int canary = 1;
+
+    /**
+     * 之后每一波包含的进程数量，0表示剩余的进程在一波内全部执行。
+     */
+    private int waveSize;
+
+    /**
+     * 等待每个进程的热更结果的超时时间，单位毫秒。
+     */
+    private long timeout = TimeUnit.SECONDS.toMillis(60);
+
+    /**
+     * 某个进程热更失败后是否继续执行之后的波次。
+     */
+    private boolean continueOnFailure;
+
+    /**
+     * 等待热更结果的目标，key为目标标识。
+     */
+    private final Map<String, CompletableFuture<HotSwapResult>> waiting = new ConcurrentHashMap<>();
+
+    /**
+     * 已经收到热更结果的目标，同一个目标的重复汇报会被拒绝。
+     */
+    private final Set<String> reported = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 本次热更的令牌，每次执行{@link #rollout(List)}时重新生成，只有携带这个令牌的汇报才会被接受。
+     */
+    private volatile String token;
+
+    /**
+     * @param agentJar 代理jar包的路径
+     * @param patch    补丁的位置，可以是一个目录或jar文件，为null时目标进程使用classpath中的热更配置文件
+     * @throws IllegalArgumentException 补丁的路径中包含逗号时抛出此异常，逗号是代理参数的分隔符
+     */
+    public HotSwapLauncher(Path agentJar, Path patch) {
+        this.agentJar = agentJar.toAbsolutePath();
+        this.patch = (patch == null) ? null : patch.toAbsolutePath();
+        if ((this.patch != null) && this.patch.toString().contains(HotSwapAgent.ARGS_SEPARATOR)) {
+            throw new IllegalArgumentException("补丁的路径中不能包含逗号：" + this.patch);
+        }
+    }
+
+    public void setCanary(int canary) {
+        this.canary = canary;
+    }
+
+    public void setWaveSize(int waveSize) {
+        this.waveSize = waveSize;
+    }
+
+    public void setTimeout(long timeout, TimeUnit unit) {
+        this.timeout = unit.toMillis(timeout);
+    }
+
+    public void setContinueOnFailure(boolean continueOnFailure) {
+        this.continueOnFailure = continueOnFailure;
+    }
+
+    /**
+     * 查找本机上显示名称匹配某个正则表达式的JVM，当前进程不会被包含在内。
+     * 显示名称通常是主类名或jar包路径以及命令行参数。
+     *
+     * @param pattern 匹配显示名称的正则表达式
+     * @return 目标进程的进程号
+     */
+    public static List<String> findTargets(Pattern pattern) {
+        String self = String.valueOf(ProcessHandle.current().pid());
+        List<String> pids = new ArrayList<>();
+        for (VirtualMachineDescriptor descriptor : VirtualMachine.list()) {
+            if (!self.equals(descriptor.id()) && pattern.matcher(descriptor.displayName()).find()) {
+                pids.add(descriptor.id());
+            }
+        }
+        return pids;
+    }
+
+    /**
+     * 对多个进程执行热更。
+     *
+     * @param pids 目标进程的进程号，按照执行的顺序排列
+     * @return 每个进程的热更结果，顺序与参数一致；因为之前的波次失败而没有执行的进程也会包含在内
+     * @throws IOException 无法监听本地端口时抛出此异常
+     */
+    public Map<String, HotSwapResult> rollout(List<String> pids) throws IOException {
+        Map<String, HotSwapResult> results = new LinkedHashMap<>();
+        this.token = newToken();
+        this.reported.clear();
+        ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "hotswap-launcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            executor.execute(() -> accept(server));
+
+            boolean failed = false;
+            int index = 0;
+            int waveIndex = 0;
+            while (index < pids.size()) {
+                int size = (waveIndex == 0) ? this.canary : this.waveSize;
+                if (size <= 0) {
+                    size = pids.size() - index;
+                }
+                List<String> wave = pids.subList(index, Math.min(index + size, pids.size()));
+                index += wave.size();
+
+                if (failed && !this.continueOnFailure) {
+                    for (String pid : wave) {
+                        results.put(pid, HotSwapResult.failure("之前的波次热更失败，没有执行"));
+                    }
+                    continue;
+                }
+
+                logger.info("开始第[{}]波热更，目标进程{}", waveIndex, wave);
+                Map<String, CompletableFuture<HotSwapResult>> futures = new LinkedHashMap<>();
+                for (String pid : wave) {
+                    futures.put(pid, CompletableFuture.supplyAsync(() -> execute(server.getLocalPort(), pid), executor));
+                }
+                for (Map.Entry<String, CompletableFuture<HotSwapResult>> e : futures.entrySet()) {
+                    HotSwapResult result = e.getValue().join();
+                    results.put(e.getKey(), result);
+                    if (result.isSuccess()) {
+                        logger.info("进程[{}]热更成功，{}", e.getKey(), result);
+                    } else {
+                        failed = true;
+                        logger.error("进程[{}]热更失败，{}", e.getKey(), result);
+                    }
+                }
+                waveIndex++;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * 对一个进程加载热更代理，并等待它汇报结果。
+     */
+    private HotSwapResult execute(int port, String pid) {
+        CompletableFuture<HotSwapResult> future = new CompletableFuture<>();
+        this.waiting.put(pid, future);
+        try {
+            StringBuilder args = new StringBuilder(HotSwapAgent.ARG_HOTSWAP);
+            if (this.patch != null) {
+                args.append(HotSwapAgent.ARGS_SEPARATOR).append(HotSwapAgent.ARG_PATCH).append('=').append(this.patch);
+            }
+            args.append(HotSwapAgent.ARGS_SEPARATOR).append(HotSwapAgent.ARG_REPORT).append('=').append(port);
+            args.append(HotSwapAgent.ARGS_SEPARATOR).append(HotSwapAgent.ARG_ID).append('=').append(pid);
+            args.append(HotSwapAgent.ARGS_SEPARATOR).append(HotSwapAgent.ARG_TOKEN).append('=').append(this.token);
+
+            VirtualMachine vm = VirtualMachine.attach(pid);
+            try {
+                vm.loadAgent(this.agentJar.toString(), args.toString());
+            } finally {
+                vm.detach();
+            }
+
+            return future.get(this.timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return HotSwapResult.failure("等待热更结果超时");
+        } catch (Exception e) {
+            logger.error("对进程[{}]加载热更代理时出现错误", pid, e);
+            return HotSwapResult.failure("加载热更代理失败：" + e);
+        } finally {
+            this.waiting.remove(pid);
+        }
+    }
+
+    /**
+     * 接收目标进程汇报的热更结果，直到端口被关闭。
+     */
+    private void accept(ServerSocket server) {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept();
+                 BufferedReader br = new BufferedReader(
+                         new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+                socket.setSoTimeout(5000);
+                String line = br.readLine();
+                if (line == null) {
+                    continue;
+                }
+
+                RolloutReport report = RolloutReport.parse(line);
+                if (!MessageDigest.isEqual(report.token.getBytes(StandardCharsets.UTF_8),
+                        this.token.getBytes(StandardCharsets.UTF_8))) {
+                    logger.warn("收到了令牌不正确的热更结果，目标[{}]，已经拒绝", report.id);
+                    continue;
+                }
+
+                CompletableFuture<HotSwapResult> future = this.waiting.get(report.id);
+                if (future == null) {
+                    logger.warn("收到了未知目标[{}]的热更结果", report.id);
+                } else if (!this.reported.add(report.id)) {
+                    logger.warn("收到了目标[{}]重复的热更结果，已经拒绝", report.id);
+                } else {
+                    future.complete(report.result);
+                }
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    logger.error("接收热更结果时出现错误", e);
+                }
+            } catch (IllegalArgumentException e) {
+                logger.error("接收热更结果时出现错误", e);
+            }
+        }
+    }
+
+    /**
+     * @return 128位的随机令牌，使用十六进制表示
+     */
+    private static String newToken() {
+        byte[] bytes = new byte[16];
+        RANDOM.nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path agentJar = null;
+        Path patch = null;
+        Pattern match = null;
+        List<String> pids = null;
+        int canary = 1;
+        int waveSize = 0;
+        long timeout = 60;
+        boolean continueOnFailure = false;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--agent":
+                        agentJar = Paths.get(args[++i]);
+                        break;
+                    case "--patch":
+                        patch = Paths.get(args[++i]);
+                        break;
+                    case "--match":
+                        match = Pattern.compile(args[++i]);
+                        break;
+                    case "--pid":
+                        pids = Arrays.asList(args[++i].split(","));
+                        break;
+                    case "--canary":
+                        canary = Integer.parseInt(args[++i]);
+                        break;
+                    case "--wave":
+                        waveSize = Integer.parseInt(args[++i]);
+                        break;
+                    case "--timeout":
+                        timeout = Long.parseLong(args[++i]);
+                        break;
+                    case "--continue-on-failure":
+                        continueOnFailure = true;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("未知的参数：" + args[i]);
+                }
+            }
+            if ((agentJar == null) || ((match == null) == (pids == null))) {
+                throw new IllegalArgumentException("必须指定--agent，以及--match和--pid中的一个");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("用法：HotSwapLauncher --agent <jar> [--patch <目录或jar>] (--match <正则> | --pid <进程号,...>)"
+                    + " [--canary <数量>] [--wave <数量>] [--timeout <秒>] [--continue-on-failure]");
+            System.exit(2);
+            return;
+        }
+
+        if (pids == null) {
+            pids = findTargets(match);
+        }
+        if (pids.isEmpty()) {
+            System.err.println("没有找到目标进程");
+            System.exit(1);
+            return;
+        }
+
+        HotSwapLauncher launcher;
+        try {
+            launcher = new HotSwapLauncher(agentJar, patch);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        launcher.setCanary(canary);
+        launcher.setWaveSize(waveSize);
+        launcher.setTimeout(timeout, TimeUnit.SECONDS);
+        launcher.setContinueOnFailure(continueOnFailure);
+        Map<String, HotSwapResult> results = launcher.rollout(pids);
+
+        int succeeded = 0;
+        for (Map.Entry<String, HotSwapResult> e : results.entrySet()) {
+            System.out.println(e.getKey() + "\t" + e.getValue());
+            if (e.getValue().isSuccess()) {
+                succeeded++;
+            }
+        }
+        System.out.println("热更完成，成功[" + succeeded + "/" + results.size() + "]");
+        System.exit((succeeded == results.size()) ? 0 : 1);
+    }
+
+}
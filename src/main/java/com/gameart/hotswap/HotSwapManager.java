@@ -7,15 +7,31 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.WatchService;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -27,214 +43,719 @@ public class HotSwapManager {
     /**
      * 存放需要被热更类名的文件。
      */
-    private static final String HOT_SWAP_FILENAME = "hotswap.txt";
+    static final String HOT_SWAP_FILENAME = "hotswap.txt";
 
     /**
      * 用于分隔多个class的分隔符。
      */
-    private static final String MULTIPLE_CLASS_SEPARATOR = ";";
+    static final String MULTIPLE_CLASS_SEPARATOR = ";";
 
     /**
      * 此类唯一实例。
      */
     private static final HotSwapManager INSTANCE = new HotSwapManager();
 
+    /**
+     * 表示重载请求不是回滚请求的代数。
+     */
+    private static final int NO_ROLLBACK = -1;
+
     private static Logger logger = LoggerFactory.getLogger(HotSwapManager.class);
 
     /**
-     * 每次成功重载的类型。
+     * 在重定义类型之前检查新旧classfile的结构是否兼容。
      */
-    private final List<Class<?>> reloadedClasses = new ArrayList<>();
+    private final HotSwapChecker checker = new HotSwapChecker();
 
     /**
-     * 用于监控热更文件是否被修改。
+     * 执行准备阶段的线程，读取配置、查找类型、读取字节以及兼容性检查都在这个线程中执行。
      */
-    private WatchService watcher;
+    private final ExecutorService prepareExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "hotswap-prepare");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
-     * 是否需要执行重载操作。
+     * 执行应用阶段的执行器，应用阶段只包含JVM重定义类型的调用以及后续的热更脚本。
      */
-    private boolean needReload;
+    private volatile Executor applyExecutor = Runnable::run;
 
     /**
-     * 服务方法{@link #}被执行的频率太快了，使用手段降低实际方法体被执行的频率。
-     * 每次tick自增，一秒大约tick次数为30。
+     * 等待进入准备阶段的重载请求，按照请求的顺序排列。
      */
-    private int tickTimes;
+    private final Deque<ReloadRequest> requests = new ArrayDeque<>();
 
     /**
-     * 重载倒计时，当值为0时开始执行自动重载操作。
+     * 已经准备完成、等待应用的热更计划。
      */
-    private int reloadCountDown = 10;
+    private final List<HotSwapPlan> pendingPlans = new ArrayList<>();
 
     /**
-     * 重载特定的类。
+     * 热更统计信息。
      */
-    public synchronized void reload() {
-        this.reloadedClasses.clear();
+    private final HotSwapStats stats = new HotSwapStats();
 
-        // 读取热更配置文件，获取需要执行热更的类名。
-        List<String> configLines = getHotSwapConfig(HOT_SWAP_FILENAME);
-        if (configLines == null) {
-            logger.error("热更失败，读取热更配置文件[{}]失败", HOT_SWAP_FILENAME);
+    /**
+     * 热更脚本的执行器，脚本在专用的线程中执行，不会阻塞应用阶段。
+     */
+    private final HotSwapScriptExecutor scriptExecutor = new HotSwapScriptExecutor(this.stats);
+
+    /**
+     * 被热更过的类型的版本历史，用于回滚。
+     */
+    private final ClassVersionStore versions = new ClassVersionStore();
+
+    /**
+     * 保证同一时间只有一个应用阶段在重定义类型。
+     */
+    private final Object applyLock = new Object();
+
+    /**
+     * classpath中的热更配置文件的地址，第一次找到后不再重新查找。
+     */
+    private volatile URL configUrl;
+
+    /**
+     * classpath中的热更配置文件最近一次的解析结果，不包含准备或者应用失败的热更项，只在准备阶段的线程中访问。
+     * 热更配置文件被修改后，只有新增或者修改过的热更项会被重载。
+     */
+    private HotSwapConfig classpathConfig;
+
+    /**
+     * 请求重载特定的类，热更配置和类型的字节都来自classpath。
+     *
+     * @return 热更的结果
+     * @see #reload(Path)
+     */
+    public CompletableFuture<HotSwapResult> reload() {
+        return reload(null);
+    }
+
+    /**
+     * 请求重载某个补丁中的类。
+     * 此方法不会阻塞调用线程，读取配置和字节、检查兼容性都在后台线程中执行，
+     * 在准备阶段开始之前到达的对同一个补丁的多次请求会被合并成一次重载。
+     *
+     * @param location 补丁的位置，可以是一个目录或jar文件，根目录下包含热更配置文件以及所有被热更的class文件；
+     *                 为null时表示使用classpath中的热更配置文件，类型的字节从类型的代码来源中读取
+     * @return 热更的结果
+     */
+    public CompletableFuture<HotSwapResult> reload(Path location) {
+        return submit(location, false, NO_ROLLBACK);
+    }
+
+    /**
+     * 提交一个重载请求。
+     *
+     * @param location           补丁的位置，为null时表示使用classpath
+     * @param incremental        为true时只重载classpath中的热更配置文件里新增或者修改过的热更项，否则重载所有热更项
+     * @param rollbackGeneration 回滚的目标代数，不是回滚请求时为{@link #NO_ROLLBACK}
+     * @return 热更的结果
+     */
+    private CompletableFuture<HotSwapResult> submit(Path location, boolean incremental, int rollbackGeneration) {
+        CompletableFuture<HotSwapResult> future = new CompletableFuture<>();
+        synchronized (this.requests) {
+            ReloadRequest last = this.requests.peekLast();
+            if ((last != null) && Objects.equals(last.location, location)
+                    && (last.rollbackGeneration == rollbackGeneration)) {
+                // 重载所有热更项的请求包含了只重载变化部分的请求。
+                last.incremental &= incremental;
+                last.futures.add(future);
+                return future;
+            }
+            this.requests.addLast(new ReloadRequest(location, incremental, rollbackGeneration, future));
+        }
+
+        this.prepareExecutor.execute(this::prepare);
+        return future;
+    }
+
+    /**
+     * 设置应用阶段的执行器。
+     * 调用JVM重定义类型时需要进入安全点，宿主可以提供一个在安静阶段执行任务的执行器，比如在游戏主循环的两次tick之间执行。
+     *
+     * @param applyExecutor 应用阶段的执行器，为null时表示在准备阶段完成后立即执行
+     */
+    public void setApplyExecutor(Executor applyExecutor) {
+        this.applyExecutor = (applyExecutor == null) ? Runnable::run : applyExecutor;
+    }
+
+    /**
+     * 准备阶段，在后台线程中执行。
+     * 准备完成后把热更计划交给应用阶段的执行器。
+     */
+    private void prepare() {
+        ReloadRequest request;
+        synchronized (this.requests) {
+            request = this.requests.pollFirst();
+        }
+        if (request == null) {
             return;
         }
 
-        if (configLines.isEmpty()) {
-            logger.error("热更失败，读取热更配置文件[{}]时没有找到有效的类名信息", HOT_SWAP_FILENAME);
+        boolean rollback = request.rollbackGeneration != NO_ROLLBACK;
+        HotSwapPlan plan;
+        try {
+            plan = rollback ? prepareRollback(request.rollbackGeneration)
+                    : preparePlan(request.location, request.incremental);
+        } catch (Throwable t) {
+            logger.error("热更失败，准备阶段出现系统错误", t);
+            complete(request.futures, HotSwapResult.failure("准备阶段出现系统错误：" + t));
+            return;
+        }
+
+        if (plan == null) {
+            complete(request.futures, HotSwapResult.failure(rollback ? "回滚的版本无效或者不兼容" : "热更配置无效"));
+            return;
+        }
+
+        if (plan.getBatches().isEmpty()) {
+            boolean success = plan.getRequestedClasses() == 0;
+            complete(request.futures, new HotSwapResult(success, plan.getRequestedClasses(), 0, 0,
+                    success ? (rollback ? "没有需要回滚的类型" : "没有需要热更的类型") : "没有准备好的类型"));
             return;
         }
 
-        boolean enable = false;
-        Iterator<String> iterator = configLines.iterator();
-        while (iterator.hasNext()) {
-            String str = iterator.next();
-            if (str.startsWith("switch=")) {
-                iterator.remove();
-                if (str.equals("switch=on")) {
-                    enable = true;
-                    break;
+        plan.getFutures().addAll(request.futures);
+        synchronized (this.pendingPlans) {
+            // 同一个补丁还没有被应用的旧计划会被新的计划替换，新的计划读取的是最新的字节。
+            // 只重载变化部分的计划与旧计划包含的热更项不同，不能替换旧计划；回滚计划既不替换其它计划，也不会被替换。
+            Iterator<HotSwapPlan> iterator = (request.incremental || rollback)
+                    ? Collections.emptyIterator() : this.pendingPlans.iterator();
+            while (iterator.hasNext()) {
+                HotSwapPlan previous = iterator.next();
+                if (!previous.isRollback() && Objects.equals(previous.getLocation(), plan.getLocation())) {
+                    iterator.remove();
+                    plan.getFutures().addAll(previous.getFutures());
+                    logger.warn("上一次的热更计划还没有被应用，已经被新的热更计划替换");
                 }
             }
+            this.pendingPlans.add(plan);
+        }
+
+        try {
+            this.applyExecutor.execute(this::applyPending);
+        } catch (RejectedExecutionException e) {
+            // 执行器已经不再接受任务，之前提交的应用阶段也可能不会再执行，所有等待应用的计划都不会被应用。
+            logger.error("热更失败，应用阶段的执行器拒绝执行", e);
+            List<HotSwapPlan> plans;
+            synchronized (this.pendingPlans) {
+                plans = new ArrayList<>(this.pendingPlans);
+                this.pendingPlans.clear();
+            }
+            for (HotSwapPlan rejected : plans) {
+                complete(rejected.getFutures(), HotSwapResult.failure("应用阶段的执行器拒绝执行"));
+            }
+        }
+    }
+
+    /**
+     * 读取热更配置文件，为每一行配置准备好需要重定义的类型。
+     *
+     * @param location    补丁的位置，为null时表示使用classpath
+     * @param incremental 为true时只准备classpath中的热更配置文件里新增或者修改过的热更项
+     * @return 准备好的热更计划，如果配置无效就返回null
+     */
+    private HotSwapPlan preparePlan(Path location, boolean incremental) {
+        long startTime = System.nanoTime();
+
+        // 读取热更配置文件，获取需要执行热更的类名。
+        HotSwapConfig config = getHotSwapConfig(location);
+        if (config == null) {
+            logger.error("热更失败，读取热更配置文件[{}]失败", HOT_SWAP_FILENAME);
+            return null;
         }
 
-        if (!enable) {
+        List<String> entries = config.getEntries();
+        if (location == null) {
+            HotSwapConfig previous = this.classpathConfig;
+            this.classpathConfig = config;
+            if (incremental) {
+                entries = config.changedSince(previous);
+                // 热更开关没有打开时，只修改注释、空行或者行的顺序同样不需要处理，也不需要再次报告开关没有打开。
+                if (config.isEnabled() ? entries.isEmpty() : config.hasSameEntries(previous)) {
+                    logger.info("热更配置文件[{}]中没有新增或修改的热更项，忽略这次修改", HOT_SWAP_FILENAME);
+                    return new HotSwapPlan(null, Collections.emptyList(), 0, System.nanoTime() - startTime);
+                }
+            }
+        }
+
+        if (config.getEntries().isEmpty()) {
+            logger.error("热更失败，读取热更配置文件[{}]时没有找到有效的类名信息", HOT_SWAP_FILENAME);
+            return null;
+        }
+
+        if (!config.isEnabled()) {
             logger.warn("热更失败，读取热更配置文件[{}]时发现热更开关没有打开", HOT_SWAP_FILENAME);
-            return;
+            return null;
         }
 
-        // 根据类名对类型进行重载。
-        for (String className : configLines) {
+        // 根据类名准备需要重载的类型。
+        List<HotSwapBatch> batches = new ArrayList<>(entries.size());
+        List<String> failedEntries = new ArrayList<>();
+        int requestedClasses = 0;
+        for (String className : entries) {
+            HotSwapBatch batch;
             if (className.contains(MULTIPLE_CLASS_SEPARATOR)) {
                 /*
                  * 一行包含多个类名，需要同时重载多个类。
                  * 比如这种形式：com.gameart.hotswap.HotSwapExample;com.gameart.hotswap.HotSwapExample$Inner
                  */
                 String[] arr = className.split(MULTIPLE_CLASS_SEPARATOR);
-                batchHotSwap(arr);
+                requestedClasses += arr.length;
+                batch = prepareBatchHotSwap(className, arr, location);
             } else {
                 // 一行只包含一个类名，只需要重载一个类。
-                singleHotSwap(className);
+                requestedClasses++;
+                batch = prepareSingleHotSwap(className, location);
+            }
+
+            if (batch != null) {
+                batches.add(batch);
+            } else {
+                failedEntries.add(className);
+            }
+        }
+
+        // 准备失败的热更项不记录在解析结果中，下一次修改热更配置文件时会再次尝试。
+        if (location == null) {
+            this.classpathConfig = config.without(failedEntries);
+        }
+
+        return new HotSwapPlan(location, batches, requestedClasses, System.nanoTime() - startTime);
+    }
+
+    /**
+     * 准备回滚，从版本历史中读取所有被热更过的类型在目标代数时的字节，所有类型作为一个批次重定义。
+     *
+     * @param generation 目标代数，0表示第一次热更之前的基线版本
+     * @return 准备好的回滚计划，如果读取版本历史失败或者修改不兼容就返回null
+     */
+    private HotSwapPlan prepareRollback(int generation) {
+        long startTime = System.nanoTime();
+        int baseGeneration = this.versions.getGeneration();
+        Map<Class<?>, byte[]> target;
+        try {
+            target = this.versions.get(generation);
+        } catch (IllegalStateException e) {
+            logger.error("回滚到第[{}]代失败，读取版本历史时出现错误", generation, e);
+            return null;
+        }
+
+        if (target.isEmpty()) {
+            logger.info("回滚到第[{}]代时没有需要重定义的类型", generation);
+            return HotSwapPlan.rollback(Collections.emptyList(), 0, System.nanoTime() - startTime,
+                    generation, baseGeneration);
+        }
+
+        List<Class<?>> classes = new ArrayList<>(target.keySet());
+        List<byte[]> classFiles = new ArrayList<>(target.values());
+        HotSwapChecker.Result result = this.checker.check(classes, classFiles);
+        if (!result.isCompatible()) {
+            logger.error("回滚到第[{}]代失败，类型的修改不兼容：{}", generation, result.getProblems());
+            return null;
+        }
+
+        String[] classNames = new String[classes.size()];
+        for (int i = 0; i < classNames.length; i++) {
+            classNames[i] = classes.get(i).getName();
+        }
+        HotSwapBatch batch = new HotSwapBatch(null, classNames, classes, classFiles, result);
+        return HotSwapPlan.rollback(Collections.singletonList(batch), classes.size(), System.nanoTime() - startTime,
+                generation, baseGeneration);
+    }
+
+    /**
+     * 应用阶段，按照顺序应用所有已经准备好的热更计划。
+     * 如果没有等待应用的热更计划，此方法直接返回。
+     */
+    private void applyPending() {
+        List<HotSwapPlan> plans;
+        synchronized (this.pendingPlans) {
+            if (this.pendingPlans.isEmpty()) {
+                return;
+            }
+            plans = new ArrayList<>(this.pendingPlans);
+            this.pendingPlans.clear();
+        }
+
+        for (HotSwapPlan plan : plans) {
+            CompletableFuture<HotSwapResult> result;
+            try {
+                result = apply(plan);
+            } catch (Throwable t) {
+                logger.error("热更失败，应用阶段出现系统错误", t);
+                result = CompletableFuture.completedFuture(HotSwapResult.failure("应用阶段出现系统错误：" + t));
+            }
+            result.thenAccept(r -> complete(plan.getFutures(), r));
+        }
+    }
+
+    /**
+     * 重定义一个热更计划中的类型，然后把热更脚本提交到脚本执行器。
+     *
+     * @param plan 准备好的热更计划
+     * @return 热更的结果，所有热更脚本执行结束后完成
+     */
+    private CompletableFuture<HotSwapResult> apply(HotSwapPlan plan) {
+        HotSwapReloadEvent event = new HotSwapReloadEvent();
+        event.begin();
+
+        // 每次成功重载的类型。
+        List<Class<?>> reloadedClasses = new ArrayList<>();
+        List<byte[]> reloadedClassFiles = new ArrayList<>();
+        List<ClassVersionStore.Deflated> reloadedVersions = new ArrayList<>();
+        List<String> failedEntries = new ArrayList<>();
+        boolean capturedBaselines = false;
+        synchronized (this.applyLock) {
+            if (plan.isRollback() && (this.versions.getGeneration() != plan.getBaseGeneration())) {
+                // 准备回滚之后又有其它热更被应用，准备好的字节已经不能代表目标代数。
+                logger.error("回滚到第[{}]代失败，准备回滚之后版本历史发生了变化", plan.getRollbackGeneration());
+                return CompletableFuture.completedFuture(HotSwapResult.failure("准备回滚之后版本历史发生了变化，需要重新回滚"));
+            }
+
+            HotSpotCounters before = HotSpotCounters.sample();
+            for (HotSwapBatch batch : plan.getBatches()) {
+                // 第一次被热更的类型在重定义的同一次JVM操作中获取基线版本。
+                Set<Class<?>> capture = new HashSet<>();
+                for (Class<?> clazz : batch.getClasses()) {
+                    if (!this.versions.hasBaseline(clazz)) {
+                        capture.add(clazz);
+                    }
+                }
+
+                long startTime = System.nanoTime();
+                boolean success = applyBatch(batch, capture);
+                long redefineTime = System.nanoTime() - startTime;
+                event.redefineTime += redefineTime;
+                if (!capture.isEmpty()) {
+                    event.captureTime += redefineTime;
+                    capturedBaselines |= success;
+                }
+                if (success) {
+                    reloadedClasses.addAll(batch.getClasses());
+                    reloadedClassFiles.addAll(batch.getClassFiles());
+                    reloadedVersions.addAll(batch.getDeflatedClassFiles());
+                    event.appliedClasses += batch.size();
+                    event.appliedBytes += batch.getByteSize();
+                } else if (batch.getEntry() != null) {
+                    failedEntries.add(batch.getEntry());
+                }
+            }
+            HotSpotCounters after = HotSpotCounters.sample();
+
+            event.end();
+            event.requestedClasses = plan.getRequestedClasses();
+            event.skippedClasses = plan.getRequestedClasses() - event.appliedClasses;
+            event.prepareTime = plan.getPrepareTime();
+            event.safepointCount = HotSpotCounters.delta(before.safepointCount, after.safepointCount);
+            event.safepointTime = HotSpotCounters.delta(before.safepointTime, after.safepointTime);
+            event.invalidatedCompileTasks = HotSpotCounters.delta(before.invalidatedCompileTasks,
+                    after.invalidatedCompileTasks);
+
+            if (!reloadedClasses.isEmpty()) {
+                int generation = this.versions.putAll(reloadedClasses, reloadedVersions);
+                if (plan.isRollback()) {
+                    logger.info("回滚到第[{}]代成功，重定义了[{}]个类型，当前为第[{}]代", plan.getRollbackGeneration(),
+                            reloadedClasses.size(), generation);
+                }
+            }
+        }
+        if ((plan.getLocation() == null) && !failedEntries.isEmpty()) {
+            forgetEntries(failedEntries);
+        }
+        if (capturedBaselines) {
+            // 基线版本在应用阶段只是保存下来，在后台线程中压缩。
+            this.prepareExecutor.execute(this.versions::compactBaselines);
+        }
+        persist(reloadedClasses, reloadedClassFiles);
+        event.commit();
+        this.stats.recordReload(event);
+        logger.info("热更应用完成，请求[{}]个类型，跳过[{}]个类型，重定义[{}]个类型共[{}]字节，准备耗时[{}]微秒，重定义耗时[{}]微秒",
+                event.requestedClasses, event.skippedClasses, event.appliedClasses, event.appliedBytes,
+                event.prepareTime / 1000, event.redefineTime / 1000);
+
+        // 如果被重载成功的类型中有热更脚本类型，需要执行热更脚本类型。回滚时不执行热更脚本。
+        List<CompletableFuture<Boolean>> scripts = new ArrayList<>();
+        for (Class<?> clazz : plan.isRollback() ? Collections.<Class<?>>emptyList() : reloadedClasses) {
+            if (HotSwapScript.class.isAssignableFrom(clazz) && !clazz.isInterface()
+                    && !Modifier.isAbstract(clazz.getModifiers())) {
+                scripts.add(this.scriptExecutor.submit(clazz));
             }
         }
 
-        // 如果被重载成功的类型中有热更脚本类型，需要执行热更脚本类型。
-        for (Class<?> clazz : this.reloadedClasses) {
-            if (HotSwapScript.class.isAssignableFrom(clazz)) {
-                try {
-                    HotSwapScript script = (HotSwapScript) clazz.newInstance();
-                    Method method = clazz.getDeclaredMethod("execute");
-                    method.invoke(script);
-                    logger.info("执行热更脚本[{}]成功", clazz.getName());
-                } catch (Throwable t) {
-                    logger.error("执行热更脚本[{}]失败", clazz.getName(), t);
+        int requestedClasses = event.requestedClasses;
+        int appliedClasses = event.appliedClasses;
+        String successMessage = plan.isRollback() ? "回滚成功" : "热更成功";
+        return CompletableFuture.allOf(scripts.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            int failedScripts = 0;
+            for (CompletableFuture<Boolean> script : scripts) {
+                if (!script.join()) {
+                    failedScripts++;
                 }
             }
+
+            boolean success = (requestedClasses == appliedClasses) && (failedScripts == 0);
+            return new HotSwapResult(success, requestedClasses, appliedClasses, failedScripts,
+                    success ? successMessage : "部分类型或热更脚本失败");
+        });
+    }
+
+    /**
+     * 设置每个热更脚本的执行时间上限，超时的脚本会被中断。
+     *
+     * @param timeout 执行时间上限
+     * @param unit    时间单位
+     */
+    public void setScriptTimeout(long timeout, TimeUnit unit) {
+        this.scriptExecutor.setTimeout(timeout, unit);
+    }
+
+    /**
+     * 取消正在执行的热更脚本，以及所有已经提交、还没有开始执行的热更脚本。
+     */
+    public void cancelScripts() {
+        this.scriptExecutor.cancelAll();
+    }
+
+    /**
+     * 通知等待热更结果的请求。
+     */
+    private static void complete(List<CompletableFuture<HotSwapResult>> futures, HotSwapResult result) {
+        for (CompletableFuture<HotSwapResult> future : futures) {
+            future.complete(result);
+        }
+    }
+
+    /**
+     * 把所有被热更过的类型回滚到某一代时的版本，所有类型通过一次批量重定义完成。
+     * 回滚与热更使用同样的准备阶段和应用阶段，回滚使用的字节来自内存中的版本历史，不会读取磁盘或jar包。
+     * 回滚本身也会产生新的一代，所以可以通过再次回滚来撤销一次回滚。被回滚的热更脚本不会被执行。
+     *
+     * @param generation 目标代数，0表示第一次热更之前的基线版本，不能大于当前的代数
+     * @return 回滚的结果
+     */
+    public CompletableFuture<HotSwapResult> rollback(int generation) {
+        int current = getGeneration();
+        if ((generation < 0) || (generation > current)) {
+            logger.error("回滚失败，目标代数[{}]不在有效范围[0, {}]内", generation, current);
+            return CompletableFuture.completedFuture(HotSwapResult.failure("目标代数不在有效范围内"));
+        }
+        return submit(null, false, generation);
+    }
+
+    /**
+     * 把所有被热更过的类型回滚到第一次热更之前的版本。
+     *
+     * @return 回滚的结果
+     * @see #rollback(int)
+     */
+    public CompletableFuture<HotSwapResult> rollbackToBaseline() {
+        return rollback(0);
+    }
+
+    /**
+     * @return 当前的代数，每次热更或回滚成功后加一，0表示还没有热更过
+     */
+    public int getGeneration() {
+        return this.versions.getGeneration();
+    }
+
+    /**
+     * 在准备阶段的线程中把应用失败的热更项从classpath中的热更配置文件的解析结果中去掉，
+     * 与准备失败的热更项一样，下一次修改热更配置文件时会再次尝试。
+     *
+     * @param entries 应用失败的热更项
+     */
+    private void forgetEntries(List<String> entries) {
+        this.prepareExecutor.execute(() -> {
+            if (this.classpathConfig != null) {
+                this.classpathConfig = this.classpathConfig.without(entries);
+            }
+        });
+    }
+
+    /**
+     * 在后台线程中把重定义成功的类型写入补丁存储，重启后在类型加载时直接使用补丁。
+     *
+     * @param classes    重定义成功的类型
+     * @param classFiles 类型对应的新的字节数组
+     */
+    private void persist(List<Class<?>> classes, List<byte[]> classFiles) {
+        PatchStore store = HotSwapAgent.getPatchStore();
+        if ((store == null) || classes.isEmpty()) {
+            return;
         }
+
+        this.prepareExecutor.execute(() -> store.putAll(classes, classFiles));
     }
 
     /**
-     * 单次热更。
+     * 重定义一批已经准备好的类型，要么同时成功，要么同时失败。
+     *
+     * @param batch   准备好的类型
+     * @param capture 需要同时获取基线版本的类型
+     * @return 如果重定义成功就返回true，否则返回false
+     */
+    private boolean applyBatch(HotSwapBatch batch, Set<Class<?>> capture) {
+        try {
+            Map<Class<?>, byte[]> baselines = HotSwapAgent.reload(batch.getClasses(), batch.getClassFiles(), capture);
+            for (Map.Entry<Class<?>, byte[]> e : baselines.entrySet()) {
+                this.versions.putBaseline(e.getKey(), e.getValue());
+            }
+            if (baselines.size() < capture.size()) {
+                logger.warn("有[{}]个类型没有获取到基线版本，这些类型无法回滚", capture.size() - baselines.size());
+            }
+            this.checker.commit(batch.getCheckResult());
+            if (batch.isSingle()) {
+                logger.info("单次热更成功，类型[{}]", batch);
+            } else {
+                logger.info("批量热更成功，类型{}", batch);
+            }
+            return true;
+        } catch (Throwable throwable) {
+            if (batch.isSingle()) {
+                logger.info("单次热更失败，重载类型[{}]时出现系统错误", batch, throwable);
+            } else {
+                logger.info("批量热更失败，重载类型列表{}时出现系统错误", batch, throwable);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 准备单次热更。
      * 每次只热更一个类型。
      *
      * @param className 被热更的类名
+     * @param location  补丁的位置，为null时表示从类型的代码来源中读取字节
+     * @return 准备好的类型，如果准备失败就返回null
      */
-    private void singleHotSwap(String className) {
-        Class<?> clazz;
+    private HotSwapBatch prepareSingleHotSwap(String className, Path location) {
+        List<Class<?>> classList;
         try {
-            // 如果一个类在JVM启动时不在jar包里面，在JVM启动后又加入到jar包里面，
-            // 在这种情况下，class.forName(className)是会失败的。
-            // 但是如果一个类是在classpath下的普通目录里，不会存在上面的问题。
-            clazz = Class.forName(className);
+            classList = findClasses(className);
         } catch (ClassNotFoundException e) {
             logger.error("单次热更失败，没有找到类型[{}]", className, e);
-            return;
+            return null;
         }
 
-        byte[] classFile = getClassFile(clazz);
-        if (classFile == null) {
-            logger.error("单次热更失败，没有找到类型[{}]的classfile", className);
-            return;
+        // 同一个类名可能被多个类加载器加载过，所有的类型都需要同时被重定义。
+        List<byte[]> classFileList = new ArrayList<>(classList.size());
+        for (Class<?> clazz : classList) {
+            byte[] classFile = getClassFile(clazz, location);
+            if (classFile == null) {
+                logger.error("单次热更失败，没有找到类型[{}]在类加载器[{}]中的classfile", className, clazz.getClassLoader());
+                return null;
+            }
+            classFileList.add(classFile);
         }
-
-        try {
-            HotSwapAgent.reload(className, classFile);
-            this.reloadedClasses.add(clazz);
-            logger.info("单次热更成功，类型[{}]", className);
-        } catch (Throwable throwable) {
-            logger.info("单次热更失败，重载类型[{}]时出现系统错误", className, throwable);
+        HotSwapChecker.Result result = this.checker.check(classList, classFileList);
+        if (!result.isCompatible()) {
+            logger.error("单次热更失败，类型[{}]的修改不兼容：{}", className, result.getProblems());
+            return null;
         }
+
+        return new HotSwapBatch(className, new String[]{className}, classList, classFileList, result);
     }
 
     /**
-     * 批量热更。
+     * 准备批量热更。
      * 一次热更多个类型，要么同时热更成功，要么同时热更失败。
      *
+     * @param entry      热更配置文件中对应的一行
      * @param classNames 被热更的多个类名
+     * @param location   补丁的位置，为null时表示从类型的代码来源中读取字节
+     * @return 准备好的类型，如果准备失败就返回null
      */
-    private void batchHotSwap(String[] classNames) {
-        ArrayList<String> classNameList = new ArrayList<>(classNames.length);
+    private HotSwapBatch prepareBatchHotSwap(String entry, String[] classNames, Path location) {
         ArrayList<byte[]> classFileList = new ArrayList<>(classNames.length);
-
-        ArrayList<Class<?>> classList = new ArrayList<>();
-        boolean success = true;
+        ArrayList<Class<?>> classList = new ArrayList<>(classNames.length);
         for (int i = 0; i < classNames.length; i++) {
             String className = classNames[i].trim();
-            Class<?> clazz;
+            List<Class<?>> classes;
             try {
-                clazz = Class.forName(className);
-                classList.add(clazz);
+                classes = findClasses(className);
             } catch (ClassNotFoundException e) {
                 logger.error("批量热更失败，没有找到类型列表{}中的第[{}]个类型", Arrays.toString(classNames), i + 1);
-                success = false;
-                break;
+                return null;
             }
 
-            byte[] classFile = getClassFile(clazz);
-            if (classFile == null) {
-                success = false;
-                logger.error("批量热更失败，没有找到类型列表{}中的第[{}]个类型的classfile", Arrays.toString(classNames), i + 1);
-                break;
-            } else {
+            for (Class<?> clazz : classes) {
+                byte[] classFile = getClassFile(clazz, location);
+                if (classFile == null) {
+                    logger.error("批量热更失败，没有找到类型列表{}中的第[{}]个类型在类加载器[{}]中的classfile",
+                            Arrays.toString(classNames), i + 1, clazz.getClassLoader());
+                    return null;
+                }
+                classList.add(clazz);
                 classFileList.add(classFile);
-                classNameList.add(className);
             }
         }
 
-        if (success) {
-            try {
-                HotSwapAgent.reload(classNameList, classFileList);
-                this.reloadedClasses.addAll(classList);
-                logger.info("批量热更成功，类型{}", Arrays.toString(classNames));
-            } catch (Throwable throwable) {
-                logger.info("批量热更失败，重载类型列表{}时出现系统错误", Arrays.toString(classNames), throwable);
-            }
+        HotSwapChecker.Result result = this.checker.check(classList, classFileList);
+        if (!result.isCompatible()) {
+            logger.error("批量热更失败，类型列表{}中的修改不兼容：{}", Arrays.toString(classNames), result.getProblems());
+            return null;
         }
+
+        return new HotSwapBatch(entry, classNames, classList, classFileList, result);
+    }
+
+    /**
+     * 查找某个类名在所有类加载器中已经加载的类型，查找时不会初始化类型。
+     * 如果类型还没有被任何类加载器加载，比如新加入的热更脚本，就通过当前的类加载器加载它。
+     *
+     * @param className 类名
+     * @return 所有同名的类型
+     * @throws ClassNotFoundException 没有找到类型时抛出此异常
+     */
+    private static List<Class<?>> findClasses(String className) throws ClassNotFoundException {
+        List<Class<?>> classes = HotSwapAgent.resolveClasses(className);
+        if (!classes.isEmpty()) {
+            return classes;
+        }
+
+        // 如果一个类在JVM启动时不在jar包里面，在JVM启动后又加入到jar包里面，
+        // 在这种情况下，class.forName(className)是会失败的。
+        // 但是如果一个类是在classpath下的普通目录里，不会存在上面的问题。
+        Class<?> clazz = Class.forName(className, false, HotSwapManager.class.getClassLoader());
+        return Collections.singletonList(clazz);
     }
 
     /**
      * 获取某个类型对应的字节数组。
      *
-     * @param clazz 类型
+     * @param clazz    类型
+     * @param location 补丁的位置，为null时表示从类型的代码来源中读取
      * @return 对应的字节数组，如果获取失败就返回null
      */
-    private byte[] getClassFile(Class<?> clazz) {
+    private byte[] getClassFile(Class<?> clazz, Path location) {
+        String filename = clazz.getName().replaceAll("\\.", "/") + ".class";
+        if (location != null) {
+            return readBytesFromLocation(location, filename);
+        }
+
         /*
          * 必须要通过此方式来获取class对应的文件。
          * 使用ClassLoader.getResource()的方式，在遇到成员类是行不通的，因为class文件都是存放在jar包中。
          * 每次在成员类或外部类的代码中额外添加、删除一些多余字节，使用getResource()都会导致读取不到。
          */
-        String path = clazz.getProtectionDomain().getCodeSource().getLocation().getPath();
-        String filename = clazz.getName().replaceAll("\\.", "/") + ".class";
+        CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+        if ((codeSource == null) || (codeSource.getLocation() == null)) {
+            // 插件或脚本的类加载器可能没有指定代码来源，只能通过类加载器读取。
+            return readBytesFromLoader(clazz.getClassLoader(), filename);
+        }
 
-        byte[] classFile;
-        if (path.endsWith(".jar")) {
-            classFile = readBytesFromJar(path, filename);
-        } else {
-            File file = new File(path + filename);
-            classFile = readBytesFromFile(file);
+        // 通过URI转换路径，路径中的空格等字符在URL中是被编码过的。
+        Path path;
+        try {
+            path = Paths.get(codeSource.getLocation().toURI());
+        } catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException e) {
+            return readBytesFromLoader(clazz.getClassLoader(), filename);
         }
-        return classFile;
+        return readBytesFromLocation(path, filename);
     }
 
     /**
@@ -255,6 +776,36 @@ public class HotSwapManager {
         }
     }
 
+    /**
+     * 通过类加载器读取某个资源的所有字节。
+     *
+     * @param loader   类加载器
+     * @param resource 资源名称
+     * @return 返回资源包含的字节数组，如果读取失败就返回null
+     */
+    private static byte[] readBytesFromLoader(ClassLoader loader, String resource) {
+        if (loader == null) {
+            return null;
+        }
+
+        try (InputStream is = loader.getResourceAsStream(resource)) {
+            if (is == null) {
+                return null;
+            }
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                bos.write(buffer, 0, n);
+            }
+            return bos.toByteArray();
+        } catch (IOException e) {
+            logger.error("从类加载器[{}]中读取资源[{}]的字节内容时出现错误", loader, resource, e);
+            return null;
+        }
+    }
+
     /**
      * 从jar文件中读取某个文件项对应的字节内容。
      *
@@ -262,7 +813,7 @@ public class HotSwapManager {
      * @param entryName 文件项名称
      * @return 返回文件项包含的字节数组，如果读取失败就返回null
      */
-    private static byte[] readBytesFromJar(String path, String entryName) {
+    static byte[] readBytesFromJar(String path, String entryName) {
         try (JarFile jarFile = new JarFile(path)) {
             JarEntry entry = jarFile.getJarEntry(entryName);
             if (entry == null) {
@@ -282,43 +833,57 @@ public class HotSwapManager {
     }
 
     /**
-     * 从文件中读取配置信息。
+     * 从补丁中读取某个文件的所有字节。
      *
-     * @param filename 热更配置文件名称
-     * @return 包含配置信息的列表
+     * @param location  补丁的位置，可以是一个目录或jar文件
+     * @param entryName 文件在补丁中的路径
+     * @return 返回文件包含的字节数组，如果读取失败就返回null
      */
-    private List<String> getHotSwapConfig(String filename) {
-        URL url = Thread.currentThread().getContextClassLoader().getResource(filename);
-        if (url == null) {
-            return null;
+    private static byte[] readBytesFromLocation(Path location, String entryName) {
+        if (Files.isDirectory(location)) {
+            File file = location.resolve(entryName).toFile();
+            return file.isFile() ? readBytesFromFile(file) : null;
         }
+        return readBytesFromJar(location.toString(), entryName);
+    }
 
-        ArrayList<String> lines = new ArrayList<>();
-        File file = new File(url.getFile());
-        try (
-                InputStreamReader isr = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
-                BufferedReader br = new BufferedReader(isr)
-        ) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) {
-                    continue;
-                }
-
-                // 以#开头的行被认为是注释行，直接忽略。
-                if (line.startsWith("#")) {
-                    continue;
-                }
+    /**
+     * 读取并解析热更配置文件。
+     *
+     * @param location 补丁的位置，为null时表示读取classpath中的热更配置文件
+     * @return 解析后的配置，读取失败时返回null
+     */
+    private HotSwapConfig getHotSwapConfig(Path location) {
+        byte[] content;
+        if (location != null) {
+            content = readBytesFromLocation(location, HOT_SWAP_FILENAME);
+        } else {
+            URL url = getConfigUrl();
+            if (url == null) {
+                return null;
+            }
 
-                lines.add(line);
+            // 通过URL读取，配置文件的路径包含空格或者位于jar包中时都可以正常读取。
+            try (InputStream is = url.openStream()) {
+                content = is.readAllBytes();
+            } catch (IOException e) {
+                logger.error("读取热更配置文件[{}]时出现错误", url, e);
+                return null;
             }
-        } catch (IOException e) {
-            logger.error("读取热更配置文件[{}]时出现错误", filename, e);
-            return null;
         }
+        return (content == null) ? null : HotSwapConfig.parse(content);
+    }
 
-        return lines;
+    /**
+     * @return classpath中的热更配置文件的地址，不存在时返回null
+     */
+    private URL getConfigUrl() {
+        URL url = this.configUrl;
+        if (url == null) {
+            url = Thread.currentThread().getContextClassLoader().getResource(HOT_SWAP_FILENAME);
+            this.configUrl = url;
+        }
+        return url;
     }
 
     /**
@@ -327,7 +892,7 @@ public class HotSwapManager {
      * @return 如果操作成功就返回true，否则返回false
      */
     public boolean start() {
-        URL url = Thread.currentThread().getContextClassLoader().getResource(HOT_SWAP_FILENAME);
+        URL url = getConfigUrl();
         if (url == null) {
             logger.warn("热更服务启动失败，热更配置文件[{}]不存在", HOT_SWAP_FILENAME);
             return false;
@@ -335,19 +900,55 @@ public class HotSwapManager {
 
         String filePath;
         try {
-            File file = new File(url.toURI());
-            filePath = file.getPath();
-        } catch (URISyntaxException e) {
-            logger.warn("热更服务启动失败，获取热更配置文件[{}]路径出现错误", HOT_SWAP_FILENAME, e);
+            filePath = Paths.get(url.toURI()).toString();
+        } catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException e) {
+            logger.warn("热更服务启动失败，热更配置文件[{}]不是一个可以监视的文件", url, e);
             return false;
         }
 
-        System.out.println(filePath);
-        FileWatchManager.register(filePath, FileChangeType.CREATE_OR_MODIFY, fileChanges -> reload());
+        // 记录启动时的配置，之后修改热更配置文件时只重载新增或者修改过的热更项。
+        this.prepareExecutor.execute(() -> this.classpathConfig = getHotSwapConfig(null));
+        FileWatchManager.register(filePath, FileChangeType.CREATE_OR_MODIFY,
+                fileChanges -> submit(null, true, NO_ROLLBACK));
         logger.info("热更服务启动成功，读取的热更配置文件路径为[{}]", filePath);
         return true;
     }
 
+    /**
+     * 等待进入准备阶段的重载请求。
+     */
+    private static final class ReloadRequest {
+
+        /**
+         * 补丁的位置，为null时表示使用classpath。
+         */
+        private final Path location;
+
+        /**
+         * 是否只重载classpath中的热更配置文件里新增或者修改过的热更项。
+         */
+        private boolean incremental;
+
+        /**
+         * 回滚的目标代数，不是回滚请求时为{@link #NO_ROLLBACK}。
+         */
+        private final int rollbackGeneration;
+
+        /**
+         * 等待这次热更结果的请求，多次相同的请求会被合并。
+         */
+        private final List<CompletableFuture<HotSwapResult>> futures = new ArrayList<>(1);
+
+        private ReloadRequest(Path location, boolean incremental, int rollbackGeneration,
+                              CompletableFuture<HotSwapResult> future) {
+            this.location = location;
+            this.incremental = incremental;
+            this.rollbackGeneration = rollbackGeneration;
+            this.futures.add(future);
+        }
+
+    }
+
     /**
      * @return the INSTANCE
      */
@@ -359,6 +960,7 @@ public class HotSwapManager {
      * Private default constructor.
      */
     private HotSwapManager() {
+        this.stats.register();
     }
 
 }
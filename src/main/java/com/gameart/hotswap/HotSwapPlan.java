@@ -0,0 +1,112 @@
+package com.gameart.hotswap;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 准备阶段的产物，包含所有准备好的类型以及准备阶段的统计信息。
+ */
+final class HotSwapPlan {
+
+    /**
+     * 补丁的位置，为null时表示使用classpath中的热更配置文件。
+     */
+    private final Path location;
+
+    /**
+     * 准备好的类型，按照热更配置中的顺序排列。
+     */
+    private final List<HotSwapBatch> batches;
+
+    /**
+     * 热更配置中请求重载的类型数量。
+     */
+    private final int requestedClasses;
+
+    /**
+     * 准备阶段的耗时，单位纳秒。
+     */
+    private final long prepareTime;
+
+    /**
+     * 回滚的目标代数，不是回滚计划时为-1。
+     */
+    private final int rollbackGeneration;
+
+    /**
+     * 准备回滚时版本历史的代数，应用时代数不同说明准备好的字节已经过期。
+     */
+    private final int baseGeneration;
+
+    /**
+     * 等待这次热更结果的请求。
+     */
+    private final List<CompletableFuture<HotSwapResult>> futures = new ArrayList<>(1);
+
+    HotSwapPlan(Path location, List<HotSwapBatch> batches, int requestedClasses, long prepareTime) {
+        this(location, batches, requestedClasses, prepareTime, -1, 0);
+    }
+
+    private HotSwapPlan(Path location, List<HotSwapBatch> batches, int requestedClasses, long prepareTime,
+                        int rollbackGeneration, int baseGeneration) {
+        this.location = location;
+        this.batches = batches;
+        this.requestedClasses = requestedClasses;
+        this.prepareTime = prepareTime;
+        this.rollbackGeneration = rollbackGeneration;
+        this.baseGeneration = baseGeneration;
+    }
+
+    /**
+     * 创建一个回滚计划，回滚计划的字节来自版本历史，不需要获取基线版本。
+     *
+     * @param batches            需要重定义的类型
+     * @param requestedClasses   需要回滚的类型数量
+     * @param prepareTime        准备阶段的耗时，单位纳秒
+     * @param rollbackGeneration 回滚的目标代数
+     * @param baseGeneration     准备回滚时版本历史的代数
+     * @return 回滚计划
+     */
+    static HotSwapPlan rollback(List<HotSwapBatch> batches, int requestedClasses, long prepareTime,
+                                int rollbackGeneration, int baseGeneration) {
+        return new HotSwapPlan(null, batches, requestedClasses, prepareTime, rollbackGeneration, baseGeneration);
+    }
+
+    Path getLocation() {
+        return location;
+    }
+
+    List<HotSwapBatch> getBatches() {
+        return batches;
+    }
+
+    int getRequestedClasses() {
+        return requestedClasses;
+    }
+
+    long getPrepareTime() {
+        return prepareTime;
+    }
+
+    /**
+     * @return 如果是回滚计划就返回true，否则返回false
+     */
+    boolean isRollback() {
+        return this.rollbackGeneration >= 0;
+    }
+
+    int getRollbackGeneration() {
+        return rollbackGeneration;
+    }
+
+    int getBaseGeneration() {
+        return baseGeneration;
+    }
+
+    List<CompletableFuture<HotSwapResult>> getFutures() {
+        return futures;
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.gameart.hotswap;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 热更应用阶段的JFR事件。
+ * 事件的持续时间覆盖整个应用阶段，也就是所有重定义操作，不包括热更脚本的执行。
+ */
+@Name("com.gameart.hotswap.Reload")
+@Label("Hot Swap Reload")
+@Category({"GameArt", "Hot Swap"})
+@Description("一次热更的类型数量、字节大小以及准备、重定义和安全点的耗时")
+@StackTrace(false)
+class HotSwapReloadEvent extends jdk.jfr.Event {
+
+    @Label("Requested Classes")
+    @Description("热更配置中请求重载的类型数量")
+    int requestedClasses;
+
+    @Label("Skipped Classes")
+    @Description("在准备阶段或重定义时失败而被跳过的类型数量")
+    int skippedClasses;
+
+    @Label("Applied Classes")
+    @Description("重定义成功的类型数量")
+    int appliedClasses;
+
+    @Label("Applied Bytes")
+    @DataAmount
+    long appliedBytes;
+
+    @Label("Prepare Time")
+    @Description("后台线程读取配置、读取字节以及兼容性检查的耗时")
+    @Timespan
+    long prepareTime;
+
+    @Label("Capture Time")
+    @Description("包含第一次被热更的类型的批次的重定义耗时，基线版本在同一次重新转换中获取，包含在重定义的耗时中")
+    @Timespan
+    long captureTime;
+
+    @Label("Redefine Time")
+    @Description("在redefineClasses或retransformClasses中花费的时间")
+    @Timespan
+    long redefineTime;
+
+    @Label("Safepoint Count")
+    @Description("应用阶段进入安全点的次数，无法读取时为-1")
+    long safepointCount;
+
+    @Label("Safepoint Time")
+    @Description("应用阶段处于安全点的时间，无法读取时为-1")
+    @Timespan(Timespan.MILLISECONDS)
+    long safepointTime;
+
+    @Label("Invalidated Compile Tasks")
+    @Description("应用阶段编译完成时因为依赖失效而被丢弃的编译任务数量，不包括被去优化的已编译方法，无法读取时为-1")
+    long invalidatedCompileTasks;
+
+}
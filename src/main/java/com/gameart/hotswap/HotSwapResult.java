@@ -0,0 +1,86 @@
+package com.gameart.hotswap;
+
+/**
+ * 一次热更的结果。
+ */
+public final class HotSwapResult {
+
+    /**
+     * 是否所有请求重载的类型都重定义成功。
+     */
+    private final boolean success;
+
+    /**
+     * 请求重载的类型数量。
+     */
+    private final int requestedClasses;
+
+    /**
+     * 重定义成功的类型数量。
+     */
+    private final int appliedClasses;
+
+    /**
+     * 执行失败的热更脚本数量。
+     */
+    private final int failedScripts;
+
+    /**
+     * 结果描述。
+     */
+    private final String message;
+
+    /**
+     * 创建一个失败的结果，表示热更没有进入应用阶段。
+     *
+     * @param message 失败原因
+     * @return 热更结果
+     */
+    static HotSwapResult failure(String message) {
+        return new HotSwapResult(false, 0, 0, 0, message);
+    }
+
+    HotSwapResult(boolean success, int requestedClasses, int appliedClasses, int failedScripts, String message) {
+        this.success = success;
+        this.requestedClasses = requestedClasses;
+        this.appliedClasses = appliedClasses;
+        this.failedScripts = failedScripts;
+        this.message = message;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public int getRequestedClasses() {
+        return requestedClasses;
+    }
+
+    public int getAppliedClasses() {
+        return appliedClasses;
+    }
+
+    public int getSkippedClasses() {
+        return requestedClasses - appliedClasses;
+    }
+
+    public int getFailedScripts() {
+        return failedScripts;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "HotSwapResult{" +
+                "success=" + success +
+                ", requestedClasses=" + requestedClasses +
+                ", appliedClasses=" + appliedClasses +
+                ", failedScripts=" + failedScripts +
+                ", message='" + message + '\'' +
+                '}';
+    }
+
+}
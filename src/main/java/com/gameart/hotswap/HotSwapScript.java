@@ -13,9 +13,22 @@ public interface HotSwapScript {
 
     /**
      * 执行脚本逻辑。
+     * 需要并行处理大量数据、汇报进度或者响应取消的脚本应该同时覆盖{@link #execute(HotSwapScriptContext)}，
+     * 此时脚本执行器不会调用此方法。
      *
      * @throws Exception 在执行过程中可能会抛出此异常
      */
     void execute() throws Exception;
 
+    /**
+     * 在脚本执行器中执行脚本逻辑，默认调用{@link #execute()}。
+     * 脚本执行超时或者被取消时，执行线程会被中断，长时间执行的脚本应该定期调用{@link HotSwapScriptContext#checkCancelled()}。
+     *
+     * @param context 执行上下文，提供并行线程池、批量处理以及进度汇报
+     * @throws Exception 在执行过程中可能会抛出此异常
+     */
+    default void execute(HotSwapScriptContext context) throws Exception {
+        execute();
+    }
+
 }
@@ -0,0 +1,273 @@
+package com.gameart.hotswap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 热更脚本的执行上下文。
+ *
+ * 提供一个有界的并行线程池用于处理大量数据，比如把所有角色的数据刷新到数据库，
+ * 同时负责汇报执行进度以及响应超时和取消。
+ * 脚本执行结束后，通过上下文提交的、还没有完成的任务都会被取消。
+ */
+public final class HotSwapScriptContext {
+
+    private static Logger logger = LoggerFactory.getLogger(HotSwapScriptContext.class);
+
+    /**
+     * 两次进度日志之间的最小间隔，单位纳秒。
+     */
+    private static final long PROGRESS_LOG_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 正在执行的脚本类型。
+     */
+    private final Class<?> scriptClass;
+
+    /**
+     * 脚本共享的并行线程池。
+     */
+    private final ExecutorService workers;
+
+    /**
+     * 并行线程池的线程数量，同时也限制了批量处理时同一时间在执行的批次数量。
+     */
+    private final int parallelism;
+
+    /**
+     * 执行统计信息，用于展示脚本的执行进度。
+     */
+    private final HotSwapStats stats;
+
+    /**
+     * 通过上下文提交的、还没有完成的任务。
+     */
+    private final Set<Future<?>> tasks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 执行脚本的线程，取消时会被中断。
+     */
+    private final Thread thread;
+
+    /**
+     * 取消的原因，没有被取消时为null。
+     */
+    private volatile String cancelReason;
+
+    /**
+     * 上一次输出进度日志的时间。
+     */
+    private volatile long lastProgressLogTime;
+
+    HotSwapScriptContext(Class<?> scriptClass, ExecutorService workers, int parallelism, HotSwapStats stats) {
+        this.scriptClass = scriptClass;
+        this.workers = workers;
+        this.parallelism = parallelism;
+        this.stats = stats;
+        this.thread = Thread.currentThread();
+        this.lastProgressLogTime = System.nanoTime();
+    }
+
+    /**
+     * @return 并行线程池的线程数量
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return 如果脚本因为超时或者手动取消而需要停止就返回true
+     */
+    public boolean isCancelled() {
+        return this.cancelReason != null;
+    }
+
+    /**
+     * 检查脚本是否已经被取消，长时间执行的脚本应该定期调用此方法。
+     *
+     * @throws CancellationException 脚本已经被取消时抛出此异常
+     */
+    public void checkCancelled() {
+        String reason = this.cancelReason;
+        if (reason != null) {
+            throw new CancellationException(reason);
+        }
+    }
+
+    /**
+     * 汇报脚本的执行进度，进度会展示在管理接口中，并且每秒最多输出一次日志。
+     *
+     * @param done  已经完成的数量
+     * @param total 总数量
+     */
+    public void reportProgress(long done, long total) {
+        this.stats.recordScriptProgress(this.scriptClass.getName() + " " + done + "/" + total);
+
+        long now = System.nanoTime();
+        long last = this.lastProgressLogTime;
+        if ((now - last >= PROGRESS_LOG_INTERVAL) || (done >= total)) {
+            this.lastProgressLogTime = now;
+            logger.info("热更脚本[{}]的执行进度[{}/{}]", this.scriptClass.getName(), done, total);
+        }
+    }
+
+    /**
+     * 在并行线程池中执行一个任务。
+     *
+     * @param task 任务
+     * @param <T>  任务结果的类型
+     * @return 任务的结果
+     * @throws CancellationException 脚本已经被取消时抛出此异常
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        checkCancelled();
+        Future<T> future = this.workers.submit(task);
+        this.tasks.add(future);
+        return future;
+    }
+
+    /**
+     * 把数据按照批次大小分组，在并行线程池中处理每一批数据，所有批次处理完成后返回，同时自动汇报执行进度。
+     * 同一时间在执行的批次数量不会超过并行线程池的线程数量。
+     * 任意一个批次失败或者脚本被取消后，不会再提交新的批次，已经提交的批次会被取消。
+     *
+     * @param items     需要处理的数据
+     * @param batchSize 每一批数据的数量
+     * @param task      处理一批数据的逻辑
+     * @param <T>       数据的类型
+     * @throws Exception 处理失败时抛出第一个批次的异常，脚本被取消时抛出{@link CancellationException}
+     */
+    public <T> void forEach(List<T> items, int batchSize, BatchTask<T> task) throws Exception {
+        List<List<T>> batches = partition(items, batchSize);
+        Semaphore permits = new Semaphore(this.parallelism);
+        AtomicLong done = new AtomicLong();
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Future<?>> futures = new ArrayList<>(batches.size());
+        try {
+            for (List<T> batch : batches) {
+                permits.acquire();
+                if (isCancelled() || failed.get()) {
+                    permits.release();
+                    break;
+                }
+
+                futures.add(submit(() -> {
+                    try {
+                        task.execute(batch);
+                        reportProgress(done.addAndGet(batch.size()), items.size());
+                        return null;
+                    } catch (Throwable t) {
+                        failed.set(true);
+                        throw t;
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            checkCancelled();
+        } catch (InterruptedException e) {
+            checkCancelled();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw (cause instanceof Exception) ? (Exception) cause : e;
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+                this.tasks.remove(future);
+            }
+        }
+    }
+
+    /**
+     * 把数据按照批次大小分组。
+     *
+     * @param items     需要分组的数据
+     * @param batchSize 每一批数据的数量
+     * @param <T>       数据的类型
+     * @return 所有批次，每一批都是原始数据的视图
+     */
+    public static <T> List<List<T>> partition(List<T> items, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("批次大小必须大于0：" + batchSize);
+        }
+        if (items.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<List<T>> batches = new ArrayList<>((items.size() + batchSize - 1) / batchSize);
+        for (int i = 0; i < items.size(); i += batchSize) {
+            batches.add(items.subList(i, Math.min(i + batchSize, items.size())));
+        }
+        return batches;
+    }
+
+    /**
+     * 取消脚本，所有已经提交的任务会被取消，执行脚本的线程会被中断。
+     *
+     * @param reason 取消的原因
+     */
+    void cancel(String reason) {
+        if (this.cancelReason != null) {
+            return;
+        }
+        this.cancelReason = reason;
+        cancelTasks();
+        this.thread.interrupt();
+    }
+
+    /**
+     * 取消所有还没有完成的任务，脚本执行结束后调用。
+     */
+    void cancelTasks() {
+        for (Future<?> future : this.tasks) {
+            future.cancel(true);
+        }
+        this.tasks.clear();
+    }
+
+    /**
+     * @return 取消的原因，没有被取消时返回null
+     */
+    String getCancelReason() {
+        return cancelReason;
+    }
+
+    /**
+     * 处理一批数据的逻辑。
+     *
+     * @param <T> 数据的类型
+     */
+    @FunctionalInterface
+    public interface BatchTask<T> {
+
+        /**
+         * 处理一批数据。
+         *
+         * @param batch 一批数据
+         * @throws Exception 处理失败时抛出此异常
+         */
+        void execute(List<T> batch) throws Exception;
+
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.gameart.hotswap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 热更脚本执行的JFR事件，事件的持续时间就是脚本的执行时间。
+ */
+@Name("com.gameart.hotswap.Script")
+@Label("Hot Swap Script")
+@Category({"GameArt", "Hot Swap"})
+@Description("一次热更脚本的执行")
+@StackTrace(false)
+class HotSwapScriptEvent extends jdk.jfr.Event {
+
+    @Label("Script Class")
+    Class<?> scriptClass;
+
+    @Label("Success")
+    boolean success;
+
+    @Label("Failure")
+    @Description("脚本执行失败时的异常信息")
+    String failure;
+
+}
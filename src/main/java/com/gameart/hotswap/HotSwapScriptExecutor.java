@@ -0,0 +1,211 @@
+package com.gameart.hotswap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 热更脚本的执行器。
+ *
+ * 所有脚本按照提交的顺序在一个专用的线程中执行，不会阻塞应用阶段和游戏主循环。
+ * 脚本通过缓存的方法句柄创建和调用，同一个类型被多次热更时，缓存的句柄会调用到最新的代码。
+ * 每个脚本都有执行时间的上限，超时或者被手动取消时，脚本的线程会被中断，通过上下文提交的任务也会被取消。
+ * 没有响应中断的脚本会一直占用执行线程，之后的脚本需要等待它执行结束。
+ */
+class HotSwapScriptExecutor {
+
+    private static Logger logger = LoggerFactory.getLogger(HotSwapScriptExecutor.class);
+
+    /**
+     * 以{@link HotSwapScript}类型调用脚本的execute方法的句柄。
+     */
+    private static final MethodHandle EXECUTE;
+
+    static {
+        try {
+            EXECUTE = MethodHandles.lookup().findVirtual(HotSwapScript.class, "execute",
+                    MethodType.methodType(void.class, HotSwapScriptContext.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * 每个脚本类型的无参构造方法句柄，返回值为{@link HotSwapScript}类型。
+     */
+    private final ClassValue<MethodHandle> constructors = new ClassValue<MethodHandle>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> type) {
+            try {
+                Constructor<?> constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                return MethodHandles.lookup().unreflectConstructor(constructor)
+                        .asType(MethodType.methodType(HotSwapScript.class));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                throw new IllegalStateException("热更脚本[" + type.getName() + "]没有可以访问的无参构造方法", e);
+            }
+        }
+    };
+
+    /**
+     * 执行脚本的线程。
+     */
+    private final ExecutorService scriptExecutor = Executors.newSingleThreadExecutor(daemonFactory("hotswap-script"));
+
+    /**
+     * 脚本共享的并行线程池，默认只使用一半的处理器，避免影响游戏主循环。
+     */
+    private final int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    private final ExecutorService workers = Executors.newFixedThreadPool(this.parallelism,
+            daemonFactory("hotswap-script-worker"));
+
+    /**
+     * 检查脚本执行时间的定时器。
+     */
+    private final ScheduledExecutorService timer;
+
+    private final HotSwapStats stats;
+
+    /**
+     * 每个脚本的执行时间上限，单位毫秒。
+     */
+    private volatile long timeout = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * 每次取消所有脚本时加一，提交时记录的值与当前值不同的脚本不会再被执行。
+     */
+    private final AtomicInteger cancelEpoch = new AtomicInteger();
+
+    /**
+     * 正在执行的脚本的上下文，没有脚本在执行时为null，只在持有{@link #currentLock}时访问。
+     */
+    private HotSwapScriptContext current;
+
+    /**
+     * 取消脚本时会中断脚本的线程，取消与脚本结束互斥，保证中断不会落到下一个脚本上。
+     */
+    private final Object currentLock = new Object();
+
+    HotSwapScriptExecutor(HotSwapStats stats) {
+        this.stats = stats;
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, daemonFactory("hotswap-script-timer"));
+        timer.setRemoveOnCancelPolicy(true);
+        this.timer = timer;
+    }
+
+    void setTimeout(long timeout, TimeUnit unit) {
+        this.timeout = unit.toMillis(timeout);
+    }
+
+    /**
+     * 提交一个热更脚本。
+     *
+     * @param scriptClass 脚本类型
+     * @return 脚本执行的结果，执行成功时为true
+     */
+    CompletableFuture<Boolean> submit(Class<?> scriptClass) {
+        int epoch = this.cancelEpoch.get();
+        return CompletableFuture.supplyAsync(() -> execute(scriptClass, epoch), this.scriptExecutor);
+    }
+
+    /**
+     * 取消正在执行的脚本，以及所有已经提交、还没有开始执行的脚本。
+     */
+    void cancelAll() {
+        this.cancelEpoch.incrementAndGet();
+        synchronized (this.currentLock) {
+            if (this.current != null) {
+                this.current.cancel("被手动取消");
+            }
+        }
+    }
+
+    /**
+     * 取消一个脚本，脚本已经执行结束时什么都不做。
+     */
+    private void cancel(HotSwapScriptContext context, String reason) {
+        synchronized (this.currentLock) {
+            if (this.current == context) {
+                context.cancel(reason);
+            }
+        }
+    }
+
+    private boolean execute(Class<?> scriptClass, int epoch) {
+        HotSwapScriptEvent event = new HotSwapScriptEvent();
+        event.begin();
+        event.scriptClass = scriptClass;
+        long startTime = System.nanoTime();
+
+        HotSwapScriptContext context = new HotSwapScriptContext(scriptClass, this.workers, this.parallelism, this.stats);
+        ScheduledFuture<?> deadline = null;
+        try {
+            if (epoch != this.cancelEpoch.get()) {
+                context.cancel("被手动取消");
+                context.checkCancelled();
+            }
+
+            synchronized (this.currentLock) {
+                this.current = context;
+            }
+            long timeout = this.timeout;
+            deadline = this.timer.schedule(() -> cancel(context, "执行超过了[" + timeout + "]毫秒"),
+                    timeout, TimeUnit.MILLISECONDS);
+
+            HotSwapScript script = (HotSwapScript) this.constructors.get(scriptClass).invokeExact();
+            EXECUTE.invokeExact(script, context);
+            context.checkCancelled();
+            event.success = true;
+            logger.info("执行热更脚本[{}]成功，耗时[{}]毫秒", scriptClass.getName(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        } catch (Throwable t) {
+            String reason = context.getCancelReason();
+            event.failure = (reason != null) ? reason : t.toString();
+            if (reason != null) {
+                logger.error("热更脚本[{}]{}，已经停止执行", scriptClass.getName(), reason);
+            } else {
+                logger.error("执行热更脚本[{}]失败", scriptClass.getName(), t);
+            }
+        } finally {
+            // 先让这个脚本不再是当前脚本，之后的取消操作不会再中断这个线程。
+            synchronized (this.currentLock) {
+                this.current = null;
+            }
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            context.cancelTasks();
+            this.stats.recordScriptProgress("");
+            // 清除取消时设置的中断状态，避免影响下一个脚本。
+            Thread.interrupted();
+        }
+
+        event.commit();
+        this.stats.recordScript(event.success, System.nanoTime() - startTime);
+        return event.success;
+    }
+
+    private static ThreadFactory daemonFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
@@ -0,0 +1,186 @@
+package com.gameart.hotswap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * 热更统计信息，数据与{@link HotSwapReloadEvent}和{@link HotSwapScriptEvent}保持一致。
+ */
+class HotSwapStats implements HotSwapStatsMXBean {
+
+    /**
+     * 管理接口注册的名称。
+     */
+    static final String OBJECT_NAME = "com.gameart.hotswap:type=HotSwapStats";
+
+    private static Logger logger = LoggerFactory.getLogger(HotSwapStats.class);
+
+    private long reloadCount;
+    private int lastRequestedClasses;
+    private int lastSkippedClasses;
+    private int lastAppliedClasses;
+    private long lastAppliedBytes;
+    private long lastPrepareTimeNanos;
+    private long lastCaptureTimeNanos;
+    private long lastRedefineTimeNanos;
+    private long maxRedefineTimeNanos;
+    private long totalRedefineTimeNanos;
+    private long lastSafepointCount = -1;
+    private long lastSafepointTimeMillis = -1;
+    private long lastInvalidatedCompileTasks = -1;
+
+    private long scriptCount;
+    private long scriptFailureCount;
+    private long lastScriptTimeNanos;
+    private volatile String scriptProgress = "";
+
+    /**
+     * 将统计信息注册到平台的MBeanServer。
+     */
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            logger.warn("注册热更统计信息[{}]失败", OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * 记录一次热更的应用阶段。
+     *
+     * @param event 已经填充数据的热更事件
+     */
+    synchronized void recordReload(HotSwapReloadEvent event) {
+        this.reloadCount++;
+        this.lastRequestedClasses = event.requestedClasses;
+        this.lastSkippedClasses = event.skippedClasses;
+        this.lastAppliedClasses = event.appliedClasses;
+        this.lastAppliedBytes = event.appliedBytes;
+        this.lastPrepareTimeNanos = event.prepareTime;
+        this.lastCaptureTimeNanos = event.captureTime;
+        this.lastRedefineTimeNanos = event.redefineTime;
+        this.maxRedefineTimeNanos = Math.max(this.maxRedefineTimeNanos, event.redefineTime);
+        this.totalRedefineTimeNanos += event.redefineTime;
+        this.lastSafepointCount = event.safepointCount;
+        this.lastSafepointTimeMillis = event.safepointTime;
+        this.lastInvalidatedCompileTasks = event.invalidatedCompileTasks;
+    }
+
+    /**
+     * 记录一次热更脚本的执行。
+     *
+     * @param success       是否执行成功
+     * @param executionTime 执行时间，单位纳秒
+     */
+    synchronized void recordScript(boolean success, long executionTime) {
+        this.scriptCount++;
+        if (!success) {
+            this.scriptFailureCount++;
+        }
+        this.lastScriptTimeNanos = executionTime;
+    }
+
+    /**
+     * 记录正在执行的热更脚本的进度，由脚本线程和并行线程频繁调用，不需要加锁。
+     *
+     * @param progress 脚本类名以及进度，没有脚本在执行时为空字符串
+     */
+    void recordScriptProgress(String progress) {
+        this.scriptProgress = progress;
+    }
+
+    @Override
+    public synchronized long getReloadCount() {
+        return reloadCount;
+    }
+
+    @Override
+    public synchronized int getLastRequestedClasses() {
+        return lastRequestedClasses;
+    }
+
+    @Override
+    public synchronized int getLastSkippedClasses() {
+        return lastSkippedClasses;
+    }
+
+    @Override
+    public synchronized int getLastAppliedClasses() {
+        return lastAppliedClasses;
+    }
+
+    @Override
+    public synchronized long getLastAppliedBytes() {
+        return lastAppliedBytes;
+    }
+
+    @Override
+    public synchronized long getLastPrepareTimeNanos() {
+        return lastPrepareTimeNanos;
+    }
+
+    @Override
+    public synchronized long getLastCaptureTimeNanos() {
+        return lastCaptureTimeNanos;
+    }
+
+    @Override
+    public synchronized long getLastRedefineTimeNanos() {
+        return lastRedefineTimeNanos;
+    }
+
+    @Override
+    public synchronized long getMaxRedefineTimeNanos() {
+        return maxRedefineTimeNanos;
+    }
+
+    @Override
+    public synchronized long getTotalRedefineTimeNanos() {
+        return totalRedefineTimeNanos;
+    }
+
+    @Override
+    public synchronized long getLastSafepointCount() {
+        return lastSafepointCount;
+    }
+
+    @Override
+    public synchronized long getLastSafepointTimeMillis() {
+        return lastSafepointTimeMillis;
+    }
+
+    @Override
+    public synchronized long getLastInvalidatedCompileTasks() {
+        return lastInvalidatedCompileTasks;
+    }
+
+    @Override
+    public synchronized long getScriptCount() {
+        return scriptCount;
+    }
+
+    @Override
+    public synchronized long getScriptFailureCount() {
+        return scriptFailureCount;
+    }
+
+    @Override
+    public synchronized long getLastScriptTimeNanos() {
+        return lastScriptTimeNanos;
+    }
+
+    @Override
+    public String getScriptProgress() {
+        return scriptProgress;
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.gameart.hotswap;
+
+/**
+ * 热更统计信息的管理接口，注册在{@link HotSwapStats#OBJECT_NAME}下。
+ * 名称以Nanos结尾的时间单位是纳秒，以Millis结尾的时间单位是毫秒，无法读取的安全点和编译任务数据为-1。
+ */
+public interface HotSwapStatsMXBean {
+
+    /**
+     * @return 执行过的应用阶段的次数
+     */
+    long getReloadCount();
+
+    /**
+     * @return 最近一次热更请求重载的类型数量
+     */
+    int getLastRequestedClasses();
+
+    /**
+     * @return 最近一次热更跳过的类型数量
+     */
+    int getLastSkippedClasses();
+
+    /**
+     * @return 最近一次热更重定义成功的类型数量
+     */
+    int getLastAppliedClasses();
+
+    /**
+     * @return 最近一次热更重定义成功的字节总数
+     */
+    long getLastAppliedBytes();
+
+    /**
+     * @return 最近一次热更准备阶段的耗时
+     */
+    long getLastPrepareTimeNanos();
+
+    /**
+     * @return 最近一次热更中同时获取基线版本的批次的重定义耗时，包含在redefineClasses的耗时中
+     */
+    long getLastCaptureTimeNanos();
+
+    /**
+     * @return 最近一次热更在redefineClasses中花费的时间
+     */
+    long getLastRedefineTimeNanos();
+
+    /**
+     * @return 所有热更在redefineClasses中花费的最长时间
+     */
+    long getMaxRedefineTimeNanos();
+
+    /**
+     * @return 所有热更在redefineClasses中花费的总时间
+     */
+    long getTotalRedefineTimeNanos();
+
+    /**
+     * @return 最近一次热更的应用阶段进入安全点的次数
+     */
+    long getLastSafepointCount();
+
+    /**
+     * @return 最近一次热更期间处于安全点的时间，单位毫秒
+     */
+    long getLastSafepointTimeMillis();
+
+    /**
+     * @return 最近一次热更期间编译完成时因为依赖失效而被丢弃的编译任务数量，不包括被去优化的已编译方法
+     */
+    long getLastInvalidatedCompileTasks();
+
+    /**
+     * @return 执行过的热更脚本数量
+     */
+    long getScriptCount();
+
+    /**
+     * @return 执行失败的热更脚本数量
+     */
+    long getScriptFailureCount();
+
+    /**
+     * @return 最近一次热更脚本的执行时间
+     */
+    long getLastScriptTimeNanos();
+
+    /**
+     * @return 正在执行的热更脚本及其进度，没有脚本在执行时返回空字符串
+     */
+    String getScriptProgress();
+
+}
@@ -0,0 +1,222 @@
+package com.gameart.hotswap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.WeakReference;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * 已加载类型的索引，记录每个类名被哪些类加载器加载过。
+ *
+ * 第一次查找时通过{@link Instrumentation#getAllLoadedClasses()}建立索引，同时注册一个转换器，
+ * 之后新加载的类型只记录类名和类加载器，在被查找时通过{@link Instrumentation#getInitiatedClasses(ClassLoader)}
+ * 解析成类型，不需要每次热更都重新扫描所有类型，也不会通过类加载器触发新的加载。
+ * 索引只持有类型和类加载器的弱引用，不会阻止插件和脚本的类加载器被回收，被回收的类加载器的记录会被自动清除。
+ * 没有被解析的记录超过上限时，丢弃所有记录并在下一次查找时重新建立索引。
+ * 查找类型不会触发类型的初始化。
+ */
+class LoadedClassIndex implements ClassFileTransformer {
+
+    private static Logger logger = LoggerFactory.getLogger(LoadedClassIndex.class);
+
+    /**
+     * 没有被解析的记录的数量上限。
+     * 不断生成新类名的类加载器会让记录持续增长，超过上限后重新建立索引比继续记录更划算。
+     */
+    private static final int MAX_PENDING = 50000;
+
+    private final Instrumentation instrumentation;
+
+    /**
+     * 已经解析的类型，key为类名，value为这个类名在不同类加载器中对应的类型，只在持有索引的锁时访问。
+     */
+    private final Map<String, List<WeakReference<Class<?>>>> classes = new HashMap<>();
+
+    /**
+     * 建立索引之后新加载、还没有被解析的类型，key为类加载器，value为这个类加载器加载的类名。
+     * 类加载器被回收后，对应的记录会被自动清除。
+     */
+    private final Map<ClassLoader, Set<String>> pending = new WeakHashMap<>();
+
+    /**
+     * 没有被解析的记录的数量，只在持有{@link #pending}的锁时访问。
+     */
+    private int pendingCount;
+
+    /**
+     * 记录的数量是否超过了上限，只在持有{@link #pending}的锁时访问。
+     */
+    private boolean overflow;
+
+    /**
+     * 转换器是否已经注册。
+     */
+    private boolean registered;
+
+    LoadedClassIndex(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * 查找某个类名在所有类加载器中对应的类型。
+     *
+     * @param className 类名
+     * @return 所有可以被重定义的同名类型，没有找到时返回空列表
+     */
+    synchronized List<Class<?>> resolve(String className) {
+        boolean rebuild;
+        synchronized (this.pending) {
+            rebuild = !this.registered || this.overflow;
+        }
+        if (rebuild) {
+            build();
+        }
+
+        List<ClassLoader> loaders = new ArrayList<>(1);
+        synchronized (this.pending) {
+            for (Map.Entry<ClassLoader, Set<String>> e : this.pending.entrySet()) {
+                if (e.getValue().contains(className)) {
+                    loaders.add(e.getKey());
+                }
+            }
+        }
+        for (ClassLoader loader : loaders) {
+            resolvePending(loader);
+        }
+
+        List<WeakReference<Class<?>>> references = this.classes.get(className);
+        if (references == null) {
+            return Collections.emptyList();
+        }
+
+        List<Class<?>> result = new ArrayList<>(references.size());
+        Iterator<WeakReference<Class<?>>> iterator = references.iterator();
+        while (iterator.hasNext()) {
+            Class<?> clazz = iterator.next().get();
+            if (clazz == null) {
+                iterator.remove();
+            } else {
+                result.add(clazz);
+            }
+        }
+        if (references.isEmpty()) {
+            this.classes.remove(className);
+        }
+        return result;
+    }
+
+    /**
+     * 建立索引，记录数量超过上限时也通过此方法重新建立。
+     * 先注册转换器再扫描已加载的类型，保证扫描期间新加载的类型不会被遗漏。
+     */
+    private void build() {
+        long startTime = System.nanoTime();
+        if (!this.registered) {
+            this.instrumentation.addTransformer(this);
+            this.registered = true;
+        }
+        synchronized (this.pending) {
+            this.pending.clear();
+            this.pendingCount = 0;
+            this.overflow = false;
+        }
+
+        this.classes.clear();
+        int count = 0;
+        for (Class<?> clazz : this.instrumentation.getAllLoadedClasses()) {
+            if (!clazz.isArray() && !clazz.isPrimitive() && this.instrumentation.isModifiableClass(clazz)) {
+                add(clazz);
+                count++;
+            }
+        }
+        logger.info("已加载类型的索引建立完成，共[{}]个类型，耗时[{}]毫秒", count, (System.nanoTime() - startTime) / 1000000);
+    }
+
+    /**
+     * 解析某个类加载器新加载的所有类型。
+     * 转换器被调用时类型还没有被定义，所以只能在查找时从JVM获取这个类加载器已经加载的类型。
+     * 没有找到的类型可能还在定义过程中，记录会被保留到下一次查找。
+     */
+    private void resolvePending(ClassLoader loader) {
+        for (Class<?> clazz : this.instrumentation.getInitiatedClasses(loader)) {
+            // 类加载器可能委托给了其它类加载器，只记录由它自己定义的类型。
+            if (clazz.getClassLoader() != loader) {
+                continue;
+            }
+
+            boolean removed;
+            synchronized (this.pending) {
+                Set<String> names = this.pending.get(loader);
+                if (names == null) {
+                    return;
+                }
+                removed = names.remove(clazz.getName());
+                if (removed) {
+                    this.pendingCount--;
+                    if (names.isEmpty()) {
+                        this.pending.remove(loader);
+                    }
+                }
+            }
+            if (removed && this.instrumentation.isModifiableClass(clazz)) {
+                add(clazz);
+            }
+        }
+    }
+
+    private void add(Class<?> clazz) {
+        List<WeakReference<Class<?>>> references = this.classes.computeIfAbsent(clazz.getName(),
+                k -> new ArrayList<>(1));
+        for (WeakReference<Class<?>> reference : references) {
+            if (reference.get() == clazz) {
+                return;
+            }
+        }
+        references.add(new WeakReference<>(clazz));
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        // 只记录新加载的类型，启动类加载器加载的类型不在热更范围内。
+        if ((classBeingRedefined != null) || (className == null) || (loader == null)) {
+            return null;
+        }
+
+        String name = className.replace('/', '.');
+        synchronized (this.pending) {
+            if (this.overflow) {
+                // 下一次查找时会重新扫描所有类型，不需要继续记录。
+                return null;
+            }
+            if (this.pending.computeIfAbsent(loader, k -> new HashSet<>()).add(name)
+                    && (++this.pendingCount > MAX_PENDING)) {
+                // 计数中可能还包含已经被回收的类加载器的记录，重新统计之后仍然超过上限才放弃记录。
+                this.pendingCount = 0;
+                for (Set<String> names : this.pending.values()) {
+                    this.pendingCount += names.size();
+                }
+                if (this.pendingCount > MAX_PENDING) {
+                    this.pending.clear();
+                    this.pendingCount = 0;
+                    this.overflow = true;
+                    logger.warn("没有被解析的类型超过[{}]个，下一次查找时会重新建立已加载类型的索引", MAX_PENDING);
+                }
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.gameart.hotswap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.List;
+
+/**
+ * 在类型第一次加载时，用补丁存储中的字节替换原始的字节。
+ * 这样重启后的补丁不需要再重定义类型，也不会丢弃任何已经编译的代码。
+ */
+class PatchReplayTransformer implements ClassFileTransformer {
+
+    private static Logger logger = LoggerFactory.getLogger(PatchReplayTransformer.class);
+
+    private final PatchStore store;
+
+    PatchReplayTransformer(PatchStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        // 只处理类型的第一次加载，重定义时使用的是热更读取到的字节。
+        if ((classBeingRedefined != null) || (className == null)) {
+            return null;
+        }
+
+        // 没有补丁的类型直接跳过，不计算也不记录CRC32。
+        List<PatchStore.Entry> entries = this.store.get(className);
+        if (entries == null) {
+            return null;
+        }
+
+        try {
+            // 有补丁的类型加载时的CRC32会被记录下来，作为之后的补丁的基线。
+            int checksum = PatchStore.checksum(classfileBuffer);
+            this.store.recordLoaded(loader, className, checksum);
+
+            PatchStore.Entry entry = null;
+            for (PatchStore.Entry e : entries) {
+                // 来源文件中已经是补丁的内容，不需要替换。
+                if (checksum == e.checksum) {
+                    return null;
+                }
+                if (checksum == e.baseline) {
+                    entry = e;
+                }
+            }
+
+            // 来源文件既不是任何补丁的基线，也不是补丁本身，说明它被重新构建过，或者这个类加载器加载的是另一份字节。
+            // 补丁可能还属于其它类加载器中的同名类型，所以只是忽略，不会移除。
+            if (entry == null) {
+                logger.info("类型[{}]在类加载器[{}]中的字节与所有补丁的基线都不一致，忽略补丁", className, loader);
+                return null;
+            }
+
+            logger.info("类型[{}]加载时使用了补丁存储中的字节", className);
+            return entry.bytes();
+        } catch (Throwable t) {
+            logger.error("类型[{}]加载时替换补丁出现错误", className, t);
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,373 @@
+package com.gameart.hotswap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * 已经应用的补丁的持久化存储。
+ * 重启后在类型第一次加载时直接使用补丁的字节，不需要再重定义类型。
+ *
+ * 文件格式：
+ * <pre>
+ * int    魔数
+ * short  版本号
+ * int    补丁数量
+ * 索引   每个补丁一项：类名(UTF)、基线CRC32(int)、补丁CRC32(int)、偏移(int)、长度(int)
+ * 数据   所有补丁的字节，偏移从数据区的起始位置开始计算
+ * </pre>
+ * 启动时一次性读入整个文件，解析索引并校验每个补丁的CRC32，补丁的字节在类型加载时才会被复制出来。
+ *
+ * 基线CRC32是类型被热更时，它的来源文件的CRC32。加载时已经有补丁的类型在加载时记录，
+ * 其它类型在第一次被保存补丁时从类加载器中读取class文件。
+ * 重启后如果加载的字节与基线一致，说明来源文件还是旧的版本，需要使用补丁；
+ * 如果与补丁一致，说明补丁已经在来源文件中了；两者都不一致时，说明来源文件被重新构建过，补丁不适用。
+ *
+ * 同一个类名可能被多个类加载器加载，每个类加载器加载的字节可能不同，所以一个类名可以有多个补丁，
+ * 每个补丁对应一个不同的基线。类型被重定义回基线的内容时，比如回滚到基线，对应的补丁会被移除。
+ */
+class PatchStore {
+
+    private static Logger logger = LoggerFactory.getLogger(PatchStore.class);
+
+    private static final int MAGIC = 0x48535053;
+
+    private static final short VERSION = 1;
+
+    /**
+     * 文件头的大小：魔数、版本号和补丁数量。
+     */
+    private static final int HEADER_SIZE = 10;
+
+    /**
+     * 一个索引项的最小大小：类名的长度、基线CRC32、补丁CRC32、偏移和长度。
+     */
+    private static final int MIN_INDEX_SIZE = 18;
+
+    /**
+     * 存储文件的大小上限，超过时认为文件已经损坏。
+     */
+    private static final long MAX_FILE_SIZE = 256L * 1024 * 1024;
+
+    /**
+     * 每个类名最多保留的补丁数量，超过时移除最早的补丁。
+     * 来源文件被重新构建后，旧的基线对应的补丁不会再被使用，这个上限避免它们无限积累。
+     */
+    private static final int MAX_ENTRIES_PER_CLASS = 8;
+
+    /**
+     * 存储文件的路径。
+     */
+    private final Path path;
+
+    /**
+     * 所有补丁，key为类名的内部形式，比如com/gameart/hotswap/HotSwapManager，value为基线各不相同的补丁。
+     * value是不可修改的列表，修改时整体替换，类型加载时可以不加锁读取。
+     */
+    private final Map<String, List<Entry>> entries = new ConcurrentHashMap<>();
+
+    /**
+     * 加载时已经有补丁的类型在启动时加载的字节的CRC32。
+     */
+    private final ClassChecksums loadedChecksums = new ClassChecksums();
+
+    /**
+     * 从文件中加载补丁，文件不存在时得到一个空的存储。
+     * 文件损坏时不会抛出异常：头部或索引损坏时忽略所有补丁，单个补丁的范围或CRC32不正确时只忽略这个补丁。
+     *
+     * @param path 存储文件的路径
+     * @return 补丁存储
+     */
+    static PatchStore open(Path path) {
+        PatchStore store = new PatchStore(path);
+        if (!Files.isRegularFile(path)) {
+            return store;
+        }
+
+        try {
+            if (Files.size(path) > MAX_FILE_SIZE) {
+                logger.error("补丁存储文件[{}]的大小超过了上限[{}]字节，忽略所有补丁", path, MAX_FILE_SIZE);
+                return store;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).asReadOnlyBuffer();
+            if ((buffer.remaining() < HEADER_SIZE) || (buffer.getInt() != MAGIC) || (buffer.getShort() != VERSION)) {
+                logger.error("补丁存储文件[{}]格式错误，忽略所有补丁", path);
+                return store;
+            }
+
+            // 每个索引项至少占用MIN_INDEX_SIZE个字节，数量超过剩余的字节能容纳的上限时说明文件已经损坏。
+            int count = buffer.getInt();
+            if ((count < 0) || (count > buffer.remaining() / MIN_INDEX_SIZE)) {
+                logger.error("补丁存储文件[{}]中的补丁数量[{}]无效，忽略所有补丁", path, count);
+                return store;
+            }
+
+            String[] names = new String[count];
+            int[] baselines = new int[count];
+            int[] checksums = new int[count];
+            int[] offsets = new int[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                int nameLength = buffer.getShort() & 0xFFFF;
+                if (nameLength + MIN_INDEX_SIZE - 2 > buffer.remaining()) {
+                    logger.error("补丁存储文件[{}]的索引不完整，忽略所有补丁", path);
+                    return store;
+                }
+                byte[] name = new byte[nameLength];
+                buffer.get(name);
+                names[i] = new String(name, StandardCharsets.UTF_8);
+                baselines[i] = buffer.getInt();
+                checksums[i] = buffer.getInt();
+                offsets[i] = buffer.getInt();
+                lengths[i] = buffer.getInt();
+            }
+
+            int dataStart = buffer.position();
+            int dataSize = buffer.remaining();
+            int loaded = 0;
+            for (int i = 0; i < count; i++) {
+                if ((offsets[i] < 0) || (lengths[i] <= 0) || ((long) offsets[i] + lengths[i] > dataSize)) {
+                    logger.warn("补丁存储文件[{}]中类型[{}]的补丁超出了文件的范围，忽略这个补丁", path, names[i]);
+                    continue;
+                }
+
+                ByteBuffer data = buffer.duplicate();
+                data.position(dataStart + offsets[i]);
+                data.limit(dataStart + offsets[i] + lengths[i]);
+                Entry entry = new Entry(baselines[i], checksums[i], data.slice());
+                if (checksum(entry.bytes()) != entry.checksum) {
+                    logger.warn("补丁存储文件[{}]中类型[{}]的补丁CRC32不一致，忽略这个补丁", path, names[i]);
+                    continue;
+                }
+                store.put(names[i], entry);
+                loaded++;
+            }
+            logger.info("从补丁存储文件[{}]中加载了[{}]个补丁", path, loaded);
+        } catch (IOException | RuntimeException e) {
+            logger.error("读取补丁存储文件[{}]时出现错误，忽略所有补丁", path, e);
+            store.entries.clear();
+        }
+        return store;
+    }
+
+    /**
+     * 获取某个类名的所有补丁。
+     *
+     * @param className 类名的内部形式
+     * @return 基线各不相同的补丁，没有补丁时返回null
+     */
+    List<Entry> get(String className) {
+        return this.entries.get(className);
+    }
+
+    /**
+     * 记录类型在启动时加载的字节的CRC32，用于确定补丁的基线，只需要记录已经有补丁的类型。
+     *
+     * @param loader    加载类型的类加载器，启动类加载器为null
+     * @param className 类名的内部形式
+     * @param checksum  加载时的字节的CRC32
+     */
+    void recordLoaded(ClassLoader loader, String className, int checksum) {
+        this.loadedChecksums.put(loader, className, checksum);
+    }
+
+    /**
+     * 记录一批已经应用的补丁，并写入文件。
+     * 每个类型使用它的来源文件的CRC32作为基线，替换同一个基线原来的补丁；
+     * 新的字节与基线一致时，说明类型已经恢复成来源文件中的内容，移除这个基线的补丁。
+     * 会读取类加载器中的class文件，需要在后台线程中调用。
+     *
+     * @param classes    被重定义的类型
+     * @param classFiles 类型对应的新的字节数组
+     */
+    synchronized void putAll(List<Class<?>> classes, List<byte[]> classFiles) {
+        for (int i = 0; i < classes.size(); i++) {
+            Class<?> clazz = classes.get(i);
+            String className = clazz.getName().replace('.', '/');
+            byte[] classFile = classFiles.get(i);
+
+            Integer baseline = this.loadedChecksums.get(clazz.getClassLoader(), className);
+            if (baseline == null) {
+                baseline = sourceChecksum(clazz.getClassLoader(), className);
+            }
+            if (baseline == null) {
+                logger.warn("类型[{}]的类加载器中找不到class文件，无法确定基线，补丁不会被保存", className);
+                continue;
+            }
+
+            int checksum = checksum(classFile);
+            if (checksum == baseline) {
+                // 类型被重定义回来源文件中的内容，或者补丁已经在来源文件中了。
+                remove(className, baseline);
+            } else {
+                put(className, new Entry(baseline, checksum, ByteBuffer.wrap(classFile)));
+            }
+        }
+        save();
+    }
+
+    /**
+     * 读取类加载器中的class文件并计算CRC32，用于加载时还没有补丁的类型。
+     * 这类类型在加载时没有记录CRC32，而通过重新转换获取的字节是JVM重新生成的，与加载时的字节不同，
+     * 所以使用类加载器现在提供的class文件作为基线。
+     * 补丁直接覆盖在classpath中时，class文件已经是补丁的内容，这时补丁不需要保存。
+     *
+     * @return class文件的CRC32，类加载器中找不到class文件时返回null
+     */
+    private static Integer sourceChecksum(ClassLoader loader, String className) {
+        String resource = className + ".class";
+        try (InputStream is = (loader == null) ? ClassLoader.getSystemResourceAsStream(resource)
+                : loader.getResourceAsStream(resource)) {
+            return (is == null) ? null : checksum(is.readAllBytes());
+        } catch (IOException e) {
+            logger.warn("读取类型[{}]的class文件时出现错误", className, e);
+            return null;
+        }
+    }
+
+    /**
+     * 记录一个补丁，替换同一个类名下基线相同的补丁。
+     */
+    private void put(String className, Entry entry) {
+        this.entries.compute(className, (k, old) -> {
+            List<Entry> list = new ArrayList<>((old == null) ? 1 : old.size() + 1);
+            if (old != null) {
+                for (Entry e : old) {
+                    if (e.baseline != entry.baseline) {
+                        list.add(e);
+                    }
+                }
+            }
+            list.add(entry);
+            if (list.size() > MAX_ENTRIES_PER_CLASS) {
+                list.remove(0);
+            }
+            return Collections.unmodifiableList(list);
+        });
+    }
+
+    /**
+     * 移除某个类名下某个基线的补丁。
+     */
+    private void remove(String className, int baseline) {
+        this.entries.computeIfPresent(className, (k, old) -> {
+            List<Entry> list = new ArrayList<>(old.size());
+            for (Entry e : old) {
+                if (e.baseline != baseline) {
+                    list.add(e);
+                }
+            }
+            return list.isEmpty() ? null : Collections.unmodifiableList(list);
+        });
+    }
+
+    /**
+     * 将所有补丁写入临时文件，再替换掉原来的文件。
+     */
+    private void save() {
+        List<Map.Entry<String, Entry>> list = new ArrayList<>();
+        for (Map.Entry<String, List<Entry>> e : this.entries.entrySet()) {
+            for (Entry entry : e.getValue()) {
+                list.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), entry));
+            }
+        }
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(bos);
+            dos.writeInt(MAGIC);
+            dos.writeShort(VERSION);
+            dos.writeInt(list.size());
+            int offset = 0;
+            for (Map.Entry<String, Entry> e : list) {
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                dos.writeShort(name.length);
+                dos.write(name);
+                dos.writeInt(e.getValue().baseline);
+                dos.writeInt(e.getValue().checksum);
+                dos.writeInt(offset);
+                dos.writeInt(e.getValue().length());
+                offset += e.getValue().length();
+            }
+            for (Map.Entry<String, Entry> e : list) {
+                dos.write(e.getValue().bytes());
+            }
+            dos.flush();
+
+            Path parent = this.path.toAbsolutePath().getParent();
+            Path temp = Files.createTempFile(parent, this.path.getFileName().toString(), ".tmp");
+            Files.write(temp, bos.toByteArray());
+            Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("写入补丁存储文件[{}]时出现错误", this.path, e);
+        }
+    }
+
+    static int checksum(byte[] classFile) {
+        CRC32 crc = new CRC32();
+        crc.update(classFile, 0, classFile.length);
+        return (int) crc.getValue();
+    }
+
+    private PatchStore(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * 一个类型的补丁。
+     */
+    static final class Entry {
+
+        /**
+         * 类型被热更时，它在启动时加载的字节的CRC32。
+         */
+        final int baseline;
+
+        /**
+         * 补丁字节的CRC32。
+         */
+        final int checksum;
+
+        /**
+         * 补丁的字节，只读。
+         */
+        private final ByteBuffer data;
+
+        private Entry(int baseline, int checksum, ByteBuffer data) {
+            this.baseline = baseline;
+            this.checksum = checksum;
+            this.data = data;
+        }
+
+        int length() {
+            return this.data.remaining();
+        }
+
+        /**
+         * @return 补丁字节的副本
+         */
+        byte[] bytes() {
+            byte[] bytes = new byte[this.data.remaining()];
+            this.data.duplicate().get(bytes);
+            return bytes;
+        }
+
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.gameart.hotswap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 多进程热更时，目标进程向发起热更的进程汇报结果。
+ *
+ * 只在本机的回环地址上通信，每个结果占用一个连接，内容为一行以制表符分隔的文本：
+ * <pre>
+ * 令牌  目标标识  是否成功(1/0)  请求重载的类型数量  重定义成功的类型数量  失败的热更脚本数量  结果描述
+ * </pre>
+ * 令牌由发起热更的进程为每次热更随机生成，通过代理参数传递给目标进程，
+ * 本机的其它进程不知道令牌，无法伪造热更结果。
+ */
+final class RolloutReport {
+
+    private static Logger logger = LoggerFactory.getLogger(RolloutReport.class);
+
+    private static final String SEPARATOR = "\t";
+
+    private static final int FIELD_COUNT = 7;
+
+    /**
+     * 连接发起热更的进程的超时时间，单位毫秒。
+     */
+    private static final int CONNECT_TIMEOUT = 3000;
+
+    /**
+     * 发起热更的进程生成的令牌。
+     */
+    final String token;
+
+    /**
+     * 目标标识。
+     */
+    final String id;
+
+    /**
+     * 目标进程的热更结果。
+     */
+    final HotSwapResult result;
+
+    private RolloutReport(String token, String id, HotSwapResult result) {
+        this.token = token;
+        this.id = id;
+        this.result = result;
+    }
+
+    /**
+     * 把热更结果发送到本机的某个端口。
+     *
+     * @param port   发起热更的进程监听的端口
+     * @param token  发起热更的进程生成的令牌
+     * @param id     目标标识
+     * @param result 热更结果
+     */
+    static void send(int port, String token, String id, HotSwapResult result) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+            OutputStream os = socket.getOutputStream();
+            os.write(format(token, id, result).getBytes(StandardCharsets.UTF_8));
+            os.flush();
+        } catch (IOException e) {
+            logger.error("向端口[{}]汇报热更结果时出现错误", port, e);
+        }
+    }
+
+    /**
+     * @return 一行以制表符分隔的文本，以换行符结尾
+     */
+    static String format(String token, String id, HotSwapResult result) {
+        String message = clean(String.valueOf(result.getMessage()));
+        return clean(token) + SEPARATOR + clean(id) + SEPARATOR + (result.isSuccess() ? 1 : 0)
+                + SEPARATOR + result.getRequestedClasses()
+                + SEPARATOR + result.getAppliedClasses()
+                + SEPARATOR + result.getFailedScripts()
+                + SEPARATOR + message + "\n";
+    }
+
+    /**
+     * 解析一行汇报内容。
+     *
+     * @param line 一行以制表符分隔的文本，不包含换行符
+     * @return 汇报的内容
+     * @throws IllegalArgumentException 内容格式错误时抛出此异常
+     */
+    static RolloutReport parse(String line) {
+        String[] fields = line.split(SEPARATOR, FIELD_COUNT);
+        if (fields.length != FIELD_COUNT) {
+            throw new IllegalArgumentException("热更结果格式错误：" + line);
+        }
+
+        try {
+            HotSwapResult result = new HotSwapResult("1".equals(fields[2]), Integer.parseInt(fields[3]),
+                    Integer.parseInt(fields[4]), Integer.parseInt(fields[5]), fields[6]);
+            return new RolloutReport(fields[0], fields[1], result);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("热更结果格式错误：" + line, e);
+        }
+    }
+
+    private static String clean(String s) {
+        return s.replaceAll("[\\t\\r\\n]", " ");
+    }
+
+}
@@ -0,0 +1,370 @@
+package com.gameart.hotswap;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 用类型自身的classfile检查类型能否被重定义，结果必须是兼容的。
+ * 反射获取的结构信息与classfile解析出的结构信息只要有一处不一致，就会导致所有对这个类型的热更都被错误地拒绝。
+ */
+class ClassStructureTest {
+
+    interface SampleInterface {
+        int value();
+
+        default int twice() {
+            return value() * 2;
+        }
+    }
+
+    enum SampleEnum implements SampleInterface {
+        A {
+            @Override
+            public int value() {
+                return 1;
+            }
+        },
+        B;
+
+        @Override
+        public int value() {
+            return 0;
+        }
+    }
+
+    @interface SampleAnnotation {
+        String value() default "";
+    }
+
+    class SampleInner {
+        private int x;
+    }
+
+    static class SampleNested {
+        protected static class Deep {
+            private final long y = 1;
+        }
+
+        private static final class Hidden {
+        }
+    }
+
+    @Test
+    void sampleClassesMatchTheirClassFiles() {
+        class SampleLocal implements Runnable {
+            @Override
+            public void run() {
+            }
+        }
+        Runnable anonymous = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        assertCompatible(Arrays.asList(SampleInterface.class, SampleEnum.class, SampleEnum.A.getClass(),
+                SampleAnnotation.class, SampleInner.class, SampleNested.class, SampleNested.Deep.class,
+                SampleNested.Hidden.class, SampleLocal.class, anonymous.getClass()));
+    }
+
+    @Test
+    void moduleClassesMatchTheirClassFiles() throws Exception {
+        Path location = Paths.get(HotSwapManager.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        List<Class<?>> classes = new ArrayList<>();
+        if (Files.isDirectory(location)) {
+            addClasses(classes, location, HotSwapManager.class.getClassLoader());
+        } else {
+            try (FileSystem jar = FileSystems.newFileSystem(location, (ClassLoader) null)) {
+                addClasses(classes, jar.getPath("/"), HotSwapManager.class.getClassLoader());
+            }
+        }
+        assertTrue(classes.contains(HotSwapManager.class));
+        assertCompatible(classes);
+    }
+
+    /**
+     * JDK中的record类型，只在JDK 16及以上版本存在。
+     */
+    @Test
+    void recordClassesMatchTheirClassFiles() throws IOException {
+        FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        List<Class<?>> classes = new ArrayList<>();
+        for (String module : new String[]{"java.base", "jdk.jfr", "jdk.net"}) {
+            Path root = jrt.getPath("/modules", module);
+            if (Files.isDirectory(root)) {
+                addClasses(classes, root, ClassLoader.getSystemClassLoader());
+            }
+        }
+        classes.removeIf(c -> (c.getSuperclass() == null) || !"java.lang.Record".equals(c.getSuperclass().getName()));
+        assertCompatible(classes);
+    }
+
+    @Test
+    void parseRejectsMalformedClassFiles() {
+        byte[] classFile = new ClassFileWriter("a/B").field(Modifier.PRIVATE, "x", "I").toByteArray();
+        byte[] badMagic = classFile.clone();
+        badMagic[0] = 0;
+        assertThrows(IllegalArgumentException.class, () -> ClassStructure.parse(badMagic));
+        assertThrows(IllegalArgumentException.class,
+                () -> ClassStructure.parse(Arrays.copyOf(classFile, classFile.length - 4)));
+    }
+
+    @Test
+    void diffDetectsFieldChanges() {
+        ClassStructure current = ClassStructure.parse(new ClassFileWriter("a/B")
+                .field(Modifier.PRIVATE, "x", "I")
+                .field(Modifier.PRIVATE, "y", "J")
+                .toByteArray());
+
+        assertEquals(0, diff(current, new ClassFileWriter("a/B")
+                .field(Modifier.PRIVATE, "x", "I")
+                .field(Modifier.PRIVATE, "y", "J")).size());
+        assertProblem("调整了字段的顺序", diff(current, new ClassFileWriter("a/B")
+                .field(Modifier.PRIVATE, "y", "J")
+                .field(Modifier.PRIVATE, "x", "I")));
+        assertProblem("修改了字段[x]的类型", diff(current, new ClassFileWriter("a/B")
+                .field(Modifier.PRIVATE, "x", "J")
+                .field(Modifier.PRIVATE, "y", "J")));
+        assertProblem("修改了字段[y]的修饰符", diff(current, new ClassFileWriter("a/B")
+                .field(Modifier.PRIVATE, "x", "I")
+                .field(Modifier.PRIVATE | Modifier.STATIC, "y", "J")));
+        assertProblem("新增了字段", diff(current, new ClassFileWriter("a/B")
+                .field(Modifier.PRIVATE, "x", "I")
+                .field(Modifier.PRIVATE, "y", "J")
+                .field(Modifier.PRIVATE, "z", "I")));
+        assertProblem("删除了字段", diff(current, new ClassFileWriter("a/B")
+                .field(Modifier.PRIVATE, "x", "I")));
+    }
+
+    @Test
+    void diffDetectsMethodChanges() {
+        ClassStructure current = ClassStructure.parse(new ClassFileWriter("a/B")
+                .method(Modifier.PUBLIC, "run", "()V")
+                .toByteArray());
+
+        assertProblem("新增了方法", diff(current, new ClassFileWriter("a/B")
+                .method(Modifier.PUBLIC, "run", "()V")
+                .method(Modifier.PUBLIC, "stop", "()V")));
+        assertProblem("删除了方法", diff(current, new ClassFileWriter("a/B")));
+        assertProblem("修改了方法[run ()V]的修饰符", diff(current, new ClassFileWriter("a/B")
+                .method(Modifier.PUBLIC | Modifier.SYNCHRONIZED, "run", "()V")));
+        // private static和private final方法可以被添加或删除。
+        assertEquals(0, diff(current, new ClassFileWriter("a/B")
+                .method(Modifier.PUBLIC, "run", "()V")
+                .method(Modifier.PRIVATE | Modifier.STATIC, "lambda$run$0", "()V")
+                .method(Modifier.PRIVATE | Modifier.FINAL, "helper", "()I")).size());
+    }
+
+    @Test
+    void diffDetectsClassChanges() {
+        ClassStructure current = ClassStructure.parse(new ClassFileWriter("a/B").toByteArray());
+
+        assertProblem("classfile中的类名是[a.C]", diff(current, new ClassFileWriter("a/C")));
+        assertProblem("修改了类修饰符", diff(current, new ClassFileWriter("a/B").access(Modifier.PUBLIC | Modifier.FINAL)));
+        assertProblem("修改了父类", diff(current, new ClassFileWriter("a/B").superName("a/Base")));
+        assertProblem("修改了实现的接口", diff(current, new ClassFileWriter("a/B").addInterface("java/lang/Runnable")));
+    }
+
+    /**
+     * 反射获取不到字段的真实顺序，旧的结构信息来自反射时不检查字段的顺序。
+     */
+    @Test
+    void reflectedStructureIgnoresFieldOrder() {
+        ClassStructure current = ClassStructure.of(SampleInner.class);
+        byte[] classFile = readClassFile(SampleInner.class);
+        List<String> problems = new ArrayList<>();
+        current.diff(ClassStructure.parse(classFile), problems);
+        assertEquals(0, problems.size());
+        assertEquals(SampleInner.class.getName().replace('.', '/'), current.getName());
+    }
+
+    private static void assertCompatible(List<Class<?>> classes) {
+        List<byte[]> classFiles = new ArrayList<>(classes.size());
+        for (Class<?> clazz : classes) {
+            classFiles.add(readClassFile(clazz));
+        }
+        List<String> problems = new HotSwapChecker().check(classes, classFiles).getProblems();
+        assertEquals(0, problems.size(), "反射与classfile的结构不一致" + problems);
+    }
+
+    private static List<String> diff(ClassStructure current, ClassFileWriter newer) {
+        List<String> problems = new ArrayList<>();
+        current.diff(ClassStructure.parse(newer.toByteArray()), problems);
+        return problems;
+    }
+
+    private static void assertProblem(String expected, List<String> problems) {
+        assertTrue(problems.size() == 1 && problems.get(0).contains(expected), "预期[" + expected + "]，实际" + problems);
+    }
+
+    private static void addClasses(List<Class<?>> classes, Path root, ClassLoader loader) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.filter(p -> p.toString().endsWith(".class") && !p.getFileName().toString().equals("module-info.class"))
+                    .forEach(p -> {
+                        String path = root.relativize(p).toString();
+                        String className = path.substring(0, path.length() - ".class".length()).replace('/', '.');
+                        try {
+                            classes.add(Class.forName(className, false, loader));
+                        } catch (ClassNotFoundException | LinkageError e) {
+                            // 依赖的类型不在classpath中，或者所在的模块没有被加载。
+                        }
+                    });
+        }
+    }
+
+    private static byte[] readClassFile(Class<?> clazz) {
+        String resource = clazz.getName().replace('.', '/') + ".class";
+        try (InputStream is = (clazz.getClassLoader() == null) ? ClassLoader.getSystemResourceAsStream(resource)
+                : clazz.getClassLoader().getResourceAsStream(resource)) {
+            if (is == null) {
+                throw new IllegalStateException("找不到类型[" + clazz.getName() + "]的classfile");
+            }
+            return is.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 只包含结构信息的classfile，方法没有Code属性，只能用于解析，不能被加载。
+     */
+    private static final class ClassFileWriter {
+
+        private final String name;
+
+        private int access = Modifier.PUBLIC;
+
+        private String superName = "java/lang/Object";
+
+        private final List<String> interfaces = new ArrayList<>();
+
+        private final List<String[]> fields = new ArrayList<>();
+
+        private final List<String[]> methods = new ArrayList<>();
+
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+
+        private final Map<String, Integer> constants = new HashMap<>();
+
+        private ClassFileWriter(String name) {
+            this.name = name;
+        }
+
+        private ClassFileWriter access(int access) {
+            this.access = access;
+            return this;
+        }
+
+        private ClassFileWriter superName(String superName) {
+            this.superName = superName;
+            return this;
+        }
+
+        private ClassFileWriter addInterface(String interfaceName) {
+            this.interfaces.add(interfaceName);
+            return this;
+        }
+
+        private ClassFileWriter field(int access, String name, String descriptor) {
+            this.fields.add(new String[]{String.valueOf(access), name, descriptor});
+            return this;
+        }
+
+        private ClassFileWriter method(int access, String name, String descriptor) {
+            this.methods.add(new String[]{String.valueOf(access), name, descriptor});
+            return this;
+        }
+
+        private byte[] toByteArray() {
+            this.pool.reset();
+            this.constants.clear();
+            try {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                DataOutputStream dos = new DataOutputStream(body);
+                dos.writeShort(this.access);
+                dos.writeShort(classConstant(this.name));
+                dos.writeShort(classConstant(this.superName));
+                dos.writeShort(this.interfaces.size());
+                for (String interfaceName : this.interfaces) {
+                    dos.writeShort(classConstant(interfaceName));
+                }
+                writeMembers(dos, this.fields);
+                writeMembers(dos, this.methods);
+                // attributes_count
+                dos.writeShort(0);
+
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bos);
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(52);
+                out.writeShort(this.constants.size() + 1);
+                this.pool.writeTo(out);
+                body.writeTo(out);
+                return bos.toByteArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeMembers(DataOutputStream dos, List<String[]> members) throws IOException {
+            dos.writeShort(members.size());
+            for (String[] member : members) {
+                dos.writeShort(Integer.parseInt(member[0]));
+                dos.writeShort(utf8Constant(member[1]));
+                dos.writeShort(utf8Constant(member[2]));
+                // attributes_count
+                dos.writeShort(0);
+            }
+        }
+
+        private int utf8Constant(String value) throws IOException {
+            Integer index = this.constants.get("U" + value);
+            if (index == null) {
+                DataOutputStream dos = new DataOutputStream(this.pool);
+                dos.writeByte(1);
+                dos.writeUTF(value);
+                index = this.constants.size() + 1;
+                this.constants.put("U" + value, index);
+            }
+            return index;
+        }
+
+        private int classConstant(String internalName) throws IOException {
+            Integer index = this.constants.get("C" + internalName);
+            if (index == null) {
+                int nameIndex = utf8Constant(internalName);
+                DataOutputStream dos = new DataOutputStream(this.pool);
+                dos.writeByte(7);
+                dos.writeShort(nameIndex);
+                index = this.constants.size() + 1;
+                this.constants.put("C" + internalName, index);
+            }
+            return index;
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.gameart.hotswap;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HotSwapConfigTest {
+
+    private static HotSwapConfig parse(String content) {
+        return HotSwapConfig.parse(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void parseSkipsCommentsAndBlankLines() {
+        HotSwapConfig config = parse("# 注释\n\nswitch=off\n  a.B  \nswitch=on\r\na.C;a.D\n");
+        assertTrue(config.isEnabled());
+        assertEquals(Arrays.asList("a.B", "a.C;a.D"), config.getEntries());
+
+        assertFalse(parse("switch=off\na.B\n").isEnabled());
+        assertFalse(parse("a.B\n").isEnabled());
+    }
+
+    @Test
+    void changedSinceReturnsNewAndModifiedEntries() {
+        HotSwapConfig previous = parse("switch=on\na.B\na.C;a.D\n");
+        HotSwapConfig current = parse("switch=on\na.E\na.B\na.C;a.D;a.F\n");
+        assertEquals(Arrays.asList("a.E", "a.C;a.D;a.F"), current.changedSince(previous));
+        assertEquals(Collections.emptyList(), previous.changedSince(previous));
+    }
+
+    @Test
+    void changedSinceReturnsAllEntriesWhenPreviousWasDisabled() {
+        HotSwapConfig current = parse("switch=on\na.B\na.C\n");
+        assertEquals(current.getEntries(), current.changedSince(null));
+        assertEquals(current.getEntries(), current.changedSince(parse("switch=off\na.B\na.C\n")));
+    }
+
+    @Test
+    void hasSameEntriesIgnoresCommentsAndOrder() {
+        HotSwapConfig config = parse("switch=on\na.B\na.C\n");
+        assertTrue(config.hasSameEntries(parse("# 注释\nswitch=on\n\na.C\na.B\n")));
+        assertFalse(config.hasSameEntries(parse("switch=off\na.B\na.C\n")));
+        assertFalse(config.hasSameEntries(parse("switch=on\na.B\n")));
+        assertFalse(config.hasSameEntries(parse("switch=on\na.B\na.C;a.D\n")));
+        assertFalse(config.hasSameEntries(null));
+    }
+
+    @Test
+    void withoutRemovesEntriesAndKeepsSwitch() {
+        HotSwapConfig config = parse("switch=on\na.B\na.C\n");
+        HotSwapConfig rest = config.without(Collections.singletonList("a.B"));
+        assertTrue(rest.isEnabled());
+        assertEquals(Collections.singletonList("a.C"), rest.getEntries());
+        assertSame(config, config.without(Collections.emptyList()));
+    }
+
+}
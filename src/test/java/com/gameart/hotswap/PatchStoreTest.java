@@ -0,0 +1,147 @@
+package com.gameart.hotswap;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PatchStoreTest {
+
+    static class Sample {
+    }
+
+    static class Other {
+    }
+
+    private static final byte[] PATCH = "patched sample".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] OTHER_PATCH = "patched other".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void missingFileGivesEmptyStore() throws IOException {
+        PatchStore store = PatchStore.open(newStorePath());
+        assertNull(store.get(internalName(Sample.class)));
+    }
+
+    @Test
+    void savedPatchesAreReadBack() throws IOException {
+        Path path = newStorePath();
+        PatchStore.open(path).putAll(Arrays.asList(Sample.class, Other.class), Arrays.asList(PATCH, OTHER_PATCH));
+
+        PatchStore store = PatchStore.open(path);
+        assertPatch(store, Sample.class, PatchStore.checksum(readClassFile(Sample.class)), PATCH);
+        assertPatch(store, Other.class, PatchStore.checksum(readClassFile(Other.class)), OTHER_PATCH);
+    }
+
+    @Test
+    void loadChecksumIsUsedAsBaseline() throws IOException {
+        Path path = newStorePath();
+        PatchStore store = PatchStore.open(path);
+        store.recordLoaded(Sample.class.getClassLoader(), internalName(Sample.class), 42);
+        store.putAll(Collections.singletonList(Sample.class), Collections.singletonList(OTHER_PATCH));
+        // 同一个基线的补丁会被替换。
+        store.putAll(Collections.singletonList(Sample.class), Collections.singletonList(PATCH));
+
+        assertPatch(PatchStore.open(path), Sample.class, 42, PATCH);
+    }
+
+    @Test
+    void revertingToSourceRemovesPatch() throws IOException {
+        Path path = newStorePath();
+        PatchStore store = PatchStore.open(path);
+        store.putAll(Collections.singletonList(Sample.class), Collections.singletonList(PATCH));
+        store.putAll(Collections.singletonList(Sample.class), Collections.singletonList(readClassFile(Sample.class)));
+
+        assertNull(store.get(internalName(Sample.class)));
+        assertNull(PatchStore.open(path).get(internalName(Sample.class)));
+    }
+
+    @Test
+    void damagedPatchIsSkipped() throws IOException {
+        Path path = newStorePath();
+        PatchStore.open(path).putAll(Arrays.asList(Sample.class, Other.class), Arrays.asList(PATCH, OTHER_PATCH));
+        byte[] content = Files.readAllBytes(path);
+
+        // 最后一个补丁的字节被修改，CRC32不一致。
+        byte[] flipped = content.clone();
+        flipped[flipped.length - 1] ^= 1;
+        Files.write(path, flipped);
+        assertEquals(1, patchCount(PatchStore.open(path)));
+
+        // 最后一个补丁超出了文件的范围。
+        Files.write(path, Arrays.copyOf(content, content.length - 1));
+        assertEquals(1, patchCount(PatchStore.open(path)));
+    }
+
+    @Test
+    void damagedHeaderIgnoresAllPatches() throws IOException {
+        Path path = newStorePath();
+        PatchStore.open(path).putAll(Collections.singletonList(Sample.class), Collections.singletonList(PATCH));
+        byte[] content = Files.readAllBytes(path);
+
+        byte[] badMagic = content.clone();
+        badMagic[0] ^= 1;
+        Files.write(path, badMagic);
+        assertEquals(0, patchCount(PatchStore.open(path)));
+
+        // 补丁数量远大于文件能容纳的数量。
+        byte[] badCount = content.clone();
+        badCount[6] = 0x7F;
+        Files.write(path, badCount);
+        assertEquals(0, patchCount(PatchStore.open(path)));
+
+        // 索引不完整。
+        Files.write(path, Arrays.copyOf(content, 16));
+        assertEquals(0, patchCount(PatchStore.open(path)));
+
+        Files.write(path, Arrays.copyOf(content, 5));
+        assertEquals(0, patchCount(PatchStore.open(path)));
+    }
+
+    private static void assertPatch(PatchStore store, Class<?> clazz, int baseline, byte[] patch) {
+        List<PatchStore.Entry> entries = store.get(internalName(clazz));
+        assertEquals(1, entries.size());
+        PatchStore.Entry entry = entries.get(0);
+        assertEquals(baseline, entry.baseline);
+        assertEquals(PatchStore.checksum(patch), entry.checksum);
+        assertArrayEquals(patch, entry.bytes());
+    }
+
+    private static int patchCount(PatchStore store) {
+        int count = 0;
+        for (Class<?> clazz : Arrays.asList(Sample.class, Other.class)) {
+            List<PatchStore.Entry> entries = store.get(internalName(clazz));
+            count += (entries == null) ? 0 : entries.size();
+        }
+        return count;
+    }
+
+    private static Path newStorePath() throws IOException {
+        Path dir = Files.createTempDirectory("hotswap-patch-store");
+        dir.toFile().deleteOnExit();
+        Path path = dir.resolve("patches.bin");
+        path.toFile().deleteOnExit();
+        return path;
+    }
+
+    private static String internalName(Class<?> clazz) {
+        return clazz.getName().replace('.', '/');
+    }
+
+    private static byte[] readClassFile(Class<?> clazz) throws IOException {
+        try (InputStream is = clazz.getClassLoader().getResourceAsStream(internalName(clazz) + ".class")) {
+            return is.readAllBytes();
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.gameart.hotswap;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RolloutReportTest {
+
+    private static RolloutReport roundTrip(String token, String id, HotSwapResult result) {
+        String line = RolloutReport.format(token, id, result);
+        assertTrue(line.endsWith("\n"));
+        assertEquals(1, line.split("\n", -1).length - 1);
+        return RolloutReport.parse(line.substring(0, line.length() - 1));
+    }
+
+    @Test
+    void formatAndParseRoundTrip() {
+        RolloutReport report = roundTrip("0123abcd", "4242", new HotSwapResult(true, 5, 4, 1, "热更完成"));
+        assertEquals("0123abcd", report.token);
+        assertEquals("4242", report.id);
+        assertTrue(report.result.isSuccess());
+        assertEquals(5, report.result.getRequestedClasses());
+        assertEquals(4, report.result.getAppliedClasses());
+        assertEquals(1, report.result.getFailedScripts());
+        assertEquals("热更完成", report.result.getMessage());
+
+        report = roundTrip("t", "1", HotSwapResult.failure("失败"));
+        assertFalse(report.result.isSuccess());
+        assertEquals("失败", report.result.getMessage());
+    }
+
+    @Test
+    void separatorsInFieldsAreReplaced() {
+        RolloutReport report = roundTrip("t", "a\tb", new HotSwapResult(false, 1, 0, 0, "第一行\n第二行\t\r结束"));
+        assertEquals("a b", report.id);
+        assertEquals("第一行 第二行  结束", report.result.getMessage());
+        assertEquals(1, report.result.getRequestedClasses());
+    }
+
+    @Test
+    void parseRejectsMalformedLines() {
+        assertThrows(IllegalArgumentException.class, () -> RolloutReport.parse(""));
+        assertThrows(IllegalArgumentException.class, () -> RolloutReport.parse("t\t1\t1\t2\t2\tok"));
+        assertThrows(IllegalArgumentException.class, () -> RolloutReport.parse("t\t1\t1\tx\t2\t0\tok"));
+    }
+
+}